@@ -0,0 +1,30 @@
+package com.github.gino0631.icns.benchmarks;
+
+import com.github.gino0631.icns.IcnsIcons;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding entries to a builder, and building icon data.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildBenchmark {
+    @Benchmark
+    public int build(CorpusState corpus) throws IOException {
+        try (IcnsIcons icons = corpus.build()) {
+            return icons.getEntries().size();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.gino0631.icns.benchmarks;
+
+import com.github.gino0631.common.io.IoStreams;
+import com.github.gino0631.icns.IcnsBuilder;
+import com.github.gino0631.icns.IcnsIcons;
+import com.github.gino0631.icns.IcnsType;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A synthetic ICNS file with a given number of PNG entries of a given size, created by {@link IcnsCorpusGenerator}.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+    @Param({"4", "64"})
+    public int entryCount;
+
+    @Param({"1024", "262144"})
+    public int entrySize;
+
+    @Param({"true"})
+    public boolean toc;
+
+    /**
+     * Entry types, in the order of entries.
+     */
+    public IcnsType[] types;
+
+    /**
+     * Entry data, in the order of entries.
+     */
+    public byte[][] payloads;
+
+    /**
+     * ICNS file containing all the entries.
+     */
+    public Path file;
+
+    /**
+     * Scratch file to write to.
+     */
+    public Path output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = Files.createTempFile("icns-bench-", ".icns");
+        output = Files.createTempFile("icns-bench-", ".icns");
+
+        new IcnsCorpusGenerator()
+                .entryCount(entryCount)
+                .typeMix(IcnsCorpusGenerator.TypeMix.PNG)
+                .payloadSize(entrySize)
+                .toc(toc)
+                .generate(file);
+
+        try (IcnsIcons icons = IcnsIcons.load(file)) {
+            types = new IcnsType[entryCount];
+            payloads = new byte[entryCount][];
+
+            for (int i = 0; i < entryCount; i++) {
+                IcnsIcons.Entry e = icons.getEntries().get(i);
+                types[i] = e.getType();
+
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(e.getSize());
+                try (InputStream is = e.newInputStream()) {
+                    IoStreams.copy(is, bos);
+                }
+                payloads[i] = bos.toByteArray();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(output);
+    }
+
+    /**
+     * Builds icon data from the payloads.
+     *
+     * @return built icon data, to be closed by the caller
+     * @throws IOException if an I/O error occurs
+     */
+    public IcnsIcons build() throws IOException {
+        try (IcnsBuilder builder = IcnsBuilder.getInstance()) {
+            for (int i = 0; i < entryCount; i++) {
+                builder.add(types[i], new ByteArrayInputStream(payloads[i]));
+            }
+
+            return builder.build();
+        }
+    }
+}
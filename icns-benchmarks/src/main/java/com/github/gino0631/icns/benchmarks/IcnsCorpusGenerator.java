@@ -0,0 +1,482 @@
+package com.github.gino0631.icns.benchmarks;
+
+import com.github.gino0631.icns.IcnsBuilder;
+import com.github.gino0631.icns.IcnsIcons;
+import com.github.gino0631.icns.IcnsType;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Generator of synthetic ICNS files for stress tests and benchmarks.
+ * <p>
+ * Files are built with {@link IcnsBuilder}, and their content depends only on the generator settings,
+ * so the same settings always produce the same bytes. Payloads are valid for their types:
+ * <ul>
+ * <li>PNG entries are decodable PNG images of the type's dimensions, padded to the requested size
+ * with an ancillary chunk; payloads may be as large as the ICNS format permits, and are generated
+ * while being added, without being held in memory,</li>
+ * <li>RLE entries are RLE-compressed 24-bit images of the type's dimensions,</li>
+ * <li>mask entries are 8-bit masks of the type's dimensions.</li>
+ * </ul>
+ * <p>
+ * Usage from the command line:
+ * <pre>
+ * java -cp benchmarks.jar com.github.gino0631.icns.benchmarks.IcnsCorpusGenerator [options] output
+ *   -n count     number of entries (default 8)
+ *   -t mix       type mix: png, rle, mask or mixed (default mixed)
+ *   -s size      size of PNG payloads in bytes, with optional K or M suffix (default 64K)
+ *   -f files     number of files; if greater than 1, output is a directory (default 1)
+ *   --seed seed  random seed (default 0)
+ *   --no-toc     do not write a TOC
+ * </pre>
+ */
+public final class IcnsCorpusGenerator {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_OVERHEAD = 12;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Mixes of entry types; entries cycle through the types of the mix.
+     */
+    public enum TypeMix {
+        PNG(IcnsType.ICNS_128x128_JPEG_PNG_IMAGE, IcnsType.ICNS_256x256_JPEG_PNG_IMAGE, IcnsType.ICNS_512x512_JPEG_PNG_IMAGE,
+                IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE, IcnsType.ICNS_16x16_2X_JPEG_PNG_IMAGE, IcnsType.ICNS_32x32_2X_JPEG_PNG_IMAGE,
+                IcnsType.ICNS_128x128_2X_JPEG_PNG_IMAGE, IcnsType.ICNS_256x256_2X_JPEG_PNG_IMAGE),
+        RLE(IcnsType.ICNS_16x16_24BIT_IMAGE, IcnsType.ICNS_32x32_24BIT_IMAGE, IcnsType.ICNS_48x48_24BIT_IMAGE, IcnsType.ICNS_128x128_24BIT_IMAGE),
+        MASK(IcnsType.ICNS_16x16_8BIT_MASK, IcnsType.ICNS_32x32_8BIT_MASK, IcnsType.ICNS_48x48_8BIT_MASK, IcnsType.ICNS_128x128_8BIT_MASK),
+        MIXED(IcnsType.ICNS_16x16_24BIT_IMAGE, IcnsType.ICNS_16x16_8BIT_MASK, IcnsType.ICNS_32x32_24BIT_IMAGE, IcnsType.ICNS_32x32_8BIT_MASK,
+                IcnsType.ICNS_128x128_24BIT_IMAGE, IcnsType.ICNS_128x128_8BIT_MASK, IcnsType.ICNS_128x128_JPEG_PNG_IMAGE,
+                IcnsType.ICNS_256x256_JPEG_PNG_IMAGE, IcnsType.ICNS_512x512_JPEG_PNG_IMAGE, IcnsType.ICNS_16x16_2X_JPEG_PNG_IMAGE,
+                IcnsType.ICNS_32x32_2X_JPEG_PNG_IMAGE, IcnsType.ICNS_128x128_2X_JPEG_PNG_IMAGE, IcnsType.ICNS_256x256_2X_JPEG_PNG_IMAGE,
+                IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE);
+
+        private final IcnsType[] types;
+
+        TypeMix(IcnsType... types) {
+            this.types = types;
+        }
+
+        IcnsType get(int i) {
+            return types[i % types.length];
+        }
+    }
+
+    private long seed;
+    private int entryCount = 8;
+    private TypeMix typeMix = TypeMix.MIXED;
+    private int payloadSize = 64 * 1024;
+    private boolean toc = true;
+
+    public IcnsCorpusGenerator seed(long seed) {
+        this.seed = seed;
+
+        return this;
+    }
+
+    public IcnsCorpusGenerator entryCount(int entryCount) {
+        if (entryCount < 0) {
+            throw new IllegalArgumentException("Entry count must not be negative");
+        }
+        this.entryCount = entryCount;
+
+        return this;
+    }
+
+    public IcnsCorpusGenerator typeMix(TypeMix typeMix) {
+        this.typeMix = typeMix;
+
+        return this;
+    }
+
+    /**
+     * Sets size of PNG payloads.
+     * <p>
+     * The size must be large enough to hold a PNG image of the type's dimensions, which takes a few hundred bytes.
+     *
+     * @param payloadSize size in bytes
+     * @return this generator
+     */
+    public IcnsCorpusGenerator payloadSize(int payloadSize) {
+        this.payloadSize = payloadSize;
+
+        return this;
+    }
+
+    public IcnsCorpusGenerator toc(boolean toc) {
+        this.toc = toc;
+
+        return this;
+    }
+
+    /**
+     * Generates an ICNS file.
+     *
+     * @param file file to write to
+     * @throws IOException if an I/O error occurs
+     */
+    public void generate(Path file) throws IOException {
+        try (IcnsIcons icons = build()) {
+            if (toc) {
+                icons.writeTo(file);
+
+            } else {
+                try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+                    writeWithoutToc(icons, os);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds icon data with the generator settings.
+     *
+     * @return built icon data, to be closed by the caller
+     * @throws IOException if an I/O error occurs
+     */
+    public IcnsIcons build() throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+
+        try (IcnsBuilder builder = IcnsBuilder.getInstance()) {
+            for (int i = 0; i < entryCount; i++) {
+                IcnsType type = typeMix.get(i);
+
+                try (InputStream is = newPayload(type, random.split())) {
+                    builder.add(type, is);
+                }
+            }
+
+            return builder.build();
+        }
+    }
+
+    private InputStream newPayload(IcnsType type, SplittableRandom random) throws IOException {
+        if (type.getBitsPerPixel() == 0) {
+            return newPng(type.getWidth(), type.getHeight(), payloadSize, random);
+
+        } else if (type.hasMask()) {
+            byte[] mask = new byte[type.getWidth() * type.getHeight()];
+            nextBytes(random, mask, 0, mask.length);
+
+            return new ByteArrayInputStream(mask);
+
+        } else {
+            return new ByteArrayInputStream(newRle(type, random));
+        }
+    }
+
+    private static void writeWithoutToc(IcnsIcons icons, OutputStream output) throws IOException {
+        long fileSize = HEADER_SIZE;
+        for (IcnsIcons.Entry e : icons.getEntries()) {
+            fileSize += HEADER_SIZE + e.getSize();
+        }
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException(MessageFormat.format("ICNS data is too large ({0} bytes)", fileSize));
+        }
+
+        DataOutputStream dos = new DataOutputStream(output);
+        dos.writeBytes("icns");
+        dos.writeInt((int) fileSize);
+
+        byte[] buf = new byte[8192];
+        for (IcnsIcons.Entry e : icons.getEntries()) {
+            dos.writeBytes(e.getOsType());
+            dos.writeInt(HEADER_SIZE + e.getSize());
+
+            try (InputStream is = e.newInputStream()) {
+                for (int n; (n = is.read(buf)) >= 0; ) {
+                    dos.write(buf, 0, n);
+                }
+            }
+        }
+
+        dos.flush();
+    }
+
+    /**
+     * Creates a 1-bit grayscale PNG image of the specified dimensions, padded to the specified size with an ancillary chunk.
+     */
+    static InputStream newPng(int width, int height, int size, SplittableRandom random) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        head.write(PNG_SIGNATURE);
+
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+        DataOutputStream ihdrData = new DataOutputStream(ihdr);
+        ihdrData.writeInt(width);
+        ihdrData.writeInt(height);
+        ihdrData.write(new byte[]{1, 0, 0, 0, 0}); // bit depth, color type, compression, filter, interlace
+        writeChunk(head, "IHDR", ihdr.toByteArray());
+
+        // Each row is a filter type byte followed by pixels; blank rows keep the image data small
+        byte[] row = new byte[1 + (width + 7) / 8];
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            byte[] buf = new byte[8192];
+            for (int y = 0; y < height; y++) {
+                deflater.setInput(row);
+                while (!deflater.needsInput()) {
+                    idat.write(buf, 0, deflater.deflate(buf));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                idat.write(buf, 0, deflater.deflate(buf));
+            }
+
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        writeChunk(tail, "IDAT", idat.toByteArray());
+        writeChunk(tail, "IEND", new byte[0]);
+
+        long fillerSize = (long) size - head.size() - tail.size() - CHUNK_OVERHEAD;
+        if (fillerSize < 0) {
+            throw new IllegalArgumentException(MessageFormat.format("PNG payload of {0}x{1} icon needs at least {2} bytes",
+                    width, height, size - fillerSize));
+        }
+
+        // Private ancillary chunk, ignored by decoders
+        byte[] fillerType = "fiLl".getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(fillerType);
+
+        ByteArrayOutputStream fillerHead = new ByteArrayOutputStream();
+        new DataOutputStream(fillerHead).writeInt((int) fillerSize);
+        fillerHead.write(fillerType);
+
+        InputStream fillerData = new RandomInputStream(random.split(), fillerSize) {
+            @Override
+            protected void onRead(byte[] b, int off, int len) {
+                crc.update(b, off, len);
+            }
+        };
+
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int i;
+
+            @Override
+            public boolean hasMoreElements() {
+                return i < 5;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                switch (i++) {
+                    case 0:
+                        return new ByteArrayInputStream(head.toByteArray());
+
+                    case 1:
+                        return new ByteArrayInputStream(fillerHead.toByteArray());
+
+                    case 2:
+                        return fillerData;
+
+                    case 3:
+                        // Created lazily, once the filler data has been read
+                        long value = crc.getValue();
+                        return new ByteArrayInputStream(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+
+                    case 4:
+                        return new ByteArrayInputStream(tail.toByteArray());
+
+                    default:
+                        throw new NoSuchElementException();
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates RLE-compressed data of a 24-bit image: three channels, each compressed separately.
+     */
+    static byte[] newRle(IcnsType type, SplittableRandom random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (type == IcnsType.ICNS_128x128_24BIT_IMAGE) {
+            // it32 data starts with four zero bytes
+            out.write(0);
+            out.write(0);
+            out.write(0);
+            out.write(0);
+        }
+
+        int pixels = type.getWidth() * type.getHeight();
+        for (int channel = 0; channel < 3; channel++) {
+            for (int remaining = pixels; remaining > 0; ) {
+                if (random.nextBoolean()) {
+                    // Literal run of 1..128 bytes
+                    int count = Math.min(remaining, 1 + random.nextInt(128));
+                    out.write(count - 1);
+                    for (int i = 0; i < count; i++) {
+                        out.write(random.nextInt(256));
+                    }
+                    remaining -= count;
+
+                } else if (remaining >= 3) {
+                    // Repeated run of 3..130 bytes
+                    int count = Math.min(remaining, 3 + random.nextInt(128));
+                    out.write(0x80 + count - 3);
+                    out.write(random.nextInt(256));
+                    remaining -= count;
+                }
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(data.length);
+        dos.write(typeBytes);
+        dos.write(data);
+        dos.writeInt((int) crc.getValue());
+    }
+
+    private static void nextBytes(SplittableRandom random, byte[] b, int off, int len) {
+        for (int i = off, end = off + len; i < end; ) {
+            for (long r = random.nextLong(), n = Math.min(end - i, 8); n-- > 0; r >>>= 8) {
+                b[i++] = (byte) r;
+            }
+        }
+    }
+
+    /**
+     * A stream of deterministic pseudo-random bytes, generated on the fly.
+     */
+    static class RandomInputStream extends InputStream {
+        private final SplittableRandom random;
+        private long remaining;
+
+        RandomInputStream(SplittableRandom random, long size) {
+            this.random = random;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            byte[] b = new byte[1];
+
+            return (read(b, 0, 1) > 0) ? (b[0] & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (remaining == 0) {
+                return -1;
+            }
+
+            len = (int) Math.min(len, remaining);
+            nextBytes(random, b, off, len);
+            onRead(b, off, len);
+            remaining -= len;
+
+            return len;
+        }
+
+        protected void onRead(byte[] b, int off, int len) {
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        IcnsCorpusGenerator generator = new IcnsCorpusGenerator();
+        int files = 1;
+        Path output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n":
+                    generator.entryCount(Integer.parseInt(args[++i]));
+                    break;
+
+                case "-t":
+                    generator.typeMix(TypeMix.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+                    break;
+
+                case "-s":
+                    generator.payloadSize(parseSize(args[++i]));
+                    break;
+
+                case "-f":
+                    files = Integer.parseInt(args[++i]);
+                    break;
+
+                case "--seed":
+                    generator.seed(Long.parseLong(args[++i]));
+                    break;
+
+                case "--no-toc":
+                    generator.toc(false);
+                    break;
+
+                default:
+                    if (args[i].startsWith("-") || (output != null)) {
+                        throw new IllegalArgumentException(MessageFormat.format("Unexpected argument: {0}", args[i]));
+                    }
+                    output = Paths.get(args[i]);
+            }
+        }
+
+        if (output == null) {
+            System.err.println("Usage: IcnsCorpusGenerator [-n count] [-t png|rle|mask|mixed] [-s size] [-f files] [--seed seed] [--no-toc] output");
+            System.exit(2);
+        }
+
+        if (files == 1) {
+            generator.generate(output);
+
+        } else {
+            Files.createDirectories(output);
+
+            long seed = generator.seed;
+            for (int i = 0; i < files; i++) {
+                generator.seed(seed + i).generate(output.resolve(String.format("corpus-%05d.icns", i)));
+            }
+        }
+    }
+
+    private static int parseSize(String size) {
+        String s = size.toUpperCase(Locale.ROOT);
+        int multiplier = 1;
+
+        if (s.endsWith("K")) {
+            multiplier = 1024;
+        } else if (s.endsWith("M")) {
+            multiplier = 1024 * 1024;
+        }
+
+        if (multiplier > 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+
+        return Math.multiplyExact(Integer.parseInt(s), multiplier);
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.gino0631.icns.benchmarks;
+
+import com.github.gino0631.icns.IcnsType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup of icon types by OSType identifier, compared with a scan of {@code IcnsType.values()}.
+ * <p>
+ * Each invocation looks up every known type plus one unknown identifier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IcnsTypeBenchmark {
+    private int[] codes;
+    private String[] osTypes;
+
+    @Setup
+    public void setup() {
+        IcnsType[] types = IcnsType.values();
+        codes = new int[types.length + 1];
+        osTypes = new String[types.length + 1];
+
+        for (int i = 0; i < types.length; i++) {
+            codes[i] = types[i].getOsTypeCode();
+            osTypes[i] = types[i].getOsType();
+        }
+
+        codes[types.length] = 0x544F4320; // "TOC "
+        osTypes[types.length] = "TOC ";
+    }
+
+    @Benchmark
+    public void ofInt(Blackhole bh) {
+        for (int code : codes) {
+            bh.consume(IcnsType.of(code));
+        }
+    }
+
+    @Benchmark
+    public void ofString(Blackhole bh) {
+        for (String osType : osTypes) {
+            bh.consume(IcnsType.of(osType));
+        }
+    }
+
+    @Benchmark
+    public void valuesScan(Blackhole bh) {
+        for (int code : codes) {
+            bh.consume(scan(code));
+        }
+    }
+
+    /**
+     * The lookup as it was implemented before the lookup table.
+     */
+    private static IcnsType scan(int code) {
+        for (IcnsType i : IcnsType.values()) {
+            if (i.getOsTypeCode() == code) {
+                return i;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.gino0631.icns.benchmarks;
+
+import com.github.gino0631.common.io.InputStreamSupplier;
+import com.github.gino0631.icns.IcnsIcons;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading of ICNS files, followed by reading every entry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+    private final byte[] buf = new byte[8192];
+
+    @Benchmark
+    public long loadPath(CorpusState corpus) throws IOException {
+        try (IcnsIcons icons = IcnsIcons.load(corpus.file)) {
+            return readAll(icons);
+        }
+    }
+
+    @Benchmark
+    public long openPath(CorpusState corpus) throws IOException {
+        try (IcnsIcons icons = IcnsIcons.open(corpus.file)) {
+            return readAll(icons);
+        }
+    }
+
+    @Benchmark
+    public long loadStreamSupplier(CorpusState corpus) throws IOException {
+        try (IcnsIcons icons = IcnsIcons.load(InputStreamSupplier.of(corpus.file))) {
+            return readAll(icons);
+        }
+    }
+
+    @Benchmark
+    public long map(CorpusState corpus) throws IOException {
+        try (IcnsIcons icons = IcnsIcons.map(corpus.file)) {
+            return readAll(icons);
+        }
+    }
+
+    private long readAll(IcnsIcons icons) throws IOException {
+        long total = 0;
+
+        for (IcnsIcons.Entry e : icons.getEntries()) {
+            try (InputStream is = e.newInputStream()) {
+                for (int n; (n = is.read(buf)) >= 0; ) {
+                    total += n;
+                }
+            }
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.gino0631.icns.benchmarks;
+
+import com.github.gino0631.icns.IcnsParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of ICNS files without reading icon data.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Benchmark
+    public void parseFile(CorpusState corpus, Blackhole bh) throws IOException {
+        IcnsParser.parse(corpus.file, (osType, type, size, input) -> {
+            bh.consume(type);
+            bh.consume(size);
+
+            return true;
+        });
+    }
+
+    @Benchmark
+    public void parseUnbufferedStream(CorpusState corpus, Blackhole bh) throws IOException {
+        try (InputStream is = new FileInputStream(corpus.file.toFile())) {
+            IcnsParser.parse(is, (osType, type, size, input) -> {
+                bh.consume(type);
+                bh.consume(size);
+
+                return true;
+            });
+        }
+    }
+
+    @Benchmark
+    public void parseMappedBuffer(CorpusState corpus, Blackhole bh) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(corpus.file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        IcnsParser.parse(buffer, (osType, offset, size, data) -> {
+            bh.consume(osType);
+            bh.consume(size);
+
+            return true;
+        });
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.gino0631.icns.benchmarks;
+
+import com.github.gino0631.icns.IcnsParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of ICNS files with hashing of every entry, either on the parsing thread, or pipelined on a thread pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"4"})
+    public int threads;
+
+    @Param({"4194304"})
+    public long maxBytesInFlight;
+
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public void serial(CorpusState corpus, Blackhole bh) throws IOException {
+        IcnsParser.parse(corpus.file, (osType, type, size, input) -> {
+            MessageDigest md = newDigest();
+            byte[] buf = new byte[8192];
+            for (int n; (n = input.read(buf)) >= 0; ) {
+                md.update(buf, 0, n);
+            }
+            bh.consume(md.digest());
+
+            return true;
+        });
+    }
+
+    @Benchmark
+    public void pipelined(CorpusState corpus, Blackhole bh) throws IOException {
+        IcnsParser.parse(corpus.file, executor, maxBytesInFlight, (osType, type, data) -> {
+            MessageDigest md = newDigest();
+            md.update(data);
+            bh.consume(md.digest());
+        });
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.gino0631.icns.benchmarks;
+
+import com.github.gino0631.icns.IcnsIcons;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing of loaded and built icon data to a file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+    private IcnsIcons loaded;
+    private IcnsIcons built;
+
+    @Setup(Level.Trial)
+    public void setup(CorpusState corpus) throws IOException {
+        loaded = IcnsIcons.load(corpus.file);
+        built = corpus.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        loaded.close();
+        built.close();
+    }
+
+    @Benchmark
+    public void writeLoadedToPath(CorpusState corpus) throws IOException {
+        loaded.writeTo(corpus.output);
+    }
+
+    @Benchmark
+    public void writeLoadedToStream(CorpusState corpus) throws IOException {
+        try (OutputStream os = Files.newOutputStream(corpus.output)) {
+            loaded.writeTo(os);
+        }
+    }
+
+    @Benchmark
+    public void writeBuiltToPath(CorpusState corpus) throws IOException {
+        built.writeTo(corpus.output);
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.gino0631.icns.benchmarks;
+
+import com.github.gino0631.icns.IcnsIcons;
+import com.github.gino0631.icns.IcnsParser;
+import com.github.gino0631.icns.IcnsType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IcnsCorpusGeneratorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGenerate() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("mixed.icns");
+        Path same = folder.getRoot().toPath().resolve("same.icns");
+        IcnsCorpusGenerator generator = new IcnsCorpusGenerator().seed(42).entryCount(14).payloadSize(4096);
+
+        generator.generate(file);
+        generator.generate(same);
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(same));
+
+        try (IcnsIcons icons = IcnsIcons.load(file)) {
+            assertEquals(14, icons.getEntries().size());
+
+            for (IcnsIcons.Entry e : icons.getEntries()) {
+                IcnsType type = e.getType();
+                assertNotNull(type);
+
+                if (type.getBitsPerPixel() == 0) {
+                    assertEquals(4096, e.getSize());
+
+                    try (InputStream is = e.newInputStream()) {
+                        BufferedImage image = ImageIO.read(is);
+                        assertNotNull(image);
+                        assertEquals(type.getWidth(), image.getWidth());
+                        assertEquals(type.getHeight(), image.getHeight());
+                    }
+
+                } else if (type.hasMask()) {
+                    assertEquals(type.getWidth() * type.getHeight(), e.getSize());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGenerateWithoutToc() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("no-toc.icns");
+        new IcnsCorpusGenerator().entryCount(3).typeMix(IcnsCorpusGenerator.TypeMix.RLE).toc(false).generate(file);
+
+        List<String> osTypes = new ArrayList<>();
+        IcnsParser.parse(file, (osType, type, size, input) -> osTypes.add(osType));
+
+        assertEquals(3, osTypes.size());
+        assertFalse(osTypes.contains(IcnsParser.TOC));
+    }
+}
@@ -3,9 +3,14 @@ package com.github.gino0631.icns;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 
 /**
  * ICNS format builder.
+ * <p>
+ * Builders are thread-safe: icons may be added from several threads at the same time,
+ * and {@link #build()} waits for icons being added.
  */
 public interface IcnsBuilder extends Closeable {
     /**
@@ -31,6 +36,102 @@ public interface IcnsBuilder extends Closeable {
      */
     IcnsBuilder add(String osType, InputStream input) throws IOException;
 
+    /**
+     * Adds an icon from the specified input stream, placing it in the entry order by the specified key.
+     * <p>
+     * Entries of the built icon data are ordered by their keys, and entries with equal keys by the order in which
+     * adding of them started; entries added without a key have key {@code 0}. So when icons are added concurrently,
+     * distinct keys make the order deterministic.
+     * <p>
+     * The stream is read into a buffer of its own, so other icons may be added at the same time. Data of up to 1 MiB
+     * is then copied to the builder, while larger data remains in that buffer, which spills to a temporary file unless
+     * the builder keeps everything in memory. The input stream will not be closed afterwards.
+     *
+     * @param key    ordering key of the entry
+     * @param osType OSType identifier of the icon type
+     * @param input  input stream to read icon data from
+     * @return this builder
+     * @throws IOException if an I/O error occurs
+     */
+    IcnsBuilder add(int key, String osType, InputStream input) throws IOException;
+
+    /**
+     * Adds an icon of known size from the specified input stream, placing it in the entry order by the specified key.
+     * <p>
+     * Space for the icon is reserved up front, and filled as the stream is read, without buffering the whole icon;
+     * other icons may be added at the same time. Exactly {@code size} bytes are read.
+     * The input stream will not be closed afterwards.
+     *
+     * @param key    ordering key of the entry
+     * @param osType OSType identifier of the icon type
+     * @param input  input stream to read icon data from
+     * @param size   size of icon data
+     * @return this builder
+     * @throws java.io.EOFException if the stream ends before {@code size} bytes are read
+     * @throws IOException          if an I/O error occurs
+     * @see #add(int, String, InputStream)
+     */
+    IcnsBuilder add(int key, String osType, InputStream input, long size) throws IOException;
+
+    /**
+     * Adds an icon from the specified file, without copying its data.
+     * Equivalent to calling {@link #add(String, Path)} with {@code type.getOsType()} as the first argument.
+     *
+     * @param type icon type
+     * @param file file containing icon data
+     * @return this builder
+     * @throws IOException if an I/O error occurs
+     */
+    IcnsBuilder add(IcnsType type, Path file) throws IOException;
+
+    /**
+     * Adds an icon from the specified file, without copying its data.
+     * <p>
+     * The builder only opens the file and records its current size; the file is read whenever the entry is read,
+     * or the built icon data is written, using {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * where possible. So the file must not be changed until the built icon data is no longer used.
+     * Each file is opened once, kept open until the builder, or the built icon data, is closed, and read using
+     * positional reads, which may proceed concurrently.
+     *
+     * @param osType OSType identifier of the icon type
+     * @param file   file containing icon data
+     * @return this builder
+     * @throws IOException if an I/O error occurs
+     */
+    IcnsBuilder add(String osType, Path file) throws IOException;
+
+    /**
+     * Adds an icon from the specified buffer, without copying its data.
+     * Equivalent to calling {@link #add(String, ByteBuffer)} with {@code type.getOsType()} as the first argument.
+     *
+     * @param type icon type
+     * @param data buffer containing icon data between its position and limit
+     * @return this builder
+     */
+    IcnsBuilder add(IcnsType type, ByteBuffer data);
+
+    /**
+     * Adds an icon from the specified buffer, without copying its data.
+     * <p>
+     * The builder keeps a view of the remaining bytes of the buffer; position and limit of the buffer are not changed,
+     * but its content must not be changed until the built icon data is no longer used.
+     *
+     * @param osType OSType identifier of the icon type
+     * @param data   buffer containing icon data between its position and limit
+     * @return this builder
+     */
+    IcnsBuilder add(String osType, ByteBuffer data);
+
+    /**
+     * Adds an icon from the specified array, without copying its data.
+     * Equivalent to calling {@link #add(IcnsType, ByteBuffer)} with a buffer wrapping the array.
+     *
+     * @param type icon type
+     * @param data icon data
+     * @return this builder
+     */
+    IcnsBuilder add(IcnsType type, byte[] data);
+
     /**
      * Builds ICNS icon data.
      *
@@ -38,12 +139,42 @@ public interface IcnsBuilder extends Closeable {
      */
     IcnsIcons build();
 
+    /**
+     * Discards all icons added to the builder, so that it can be used to build other icon data.
+     * <p>
+     * This may be called before or after {@link #build()}. Icon data built before remains valid until it is closed;
+     * the memory buffers or the temporary file it uses are then handed back to the builder, and reused after the next reset,
+     * instead of being released. So a single builder may produce any number of icon data without creating temporary files
+     * again, provided that each icon data is closed before the builder is reset the second time.
+     *
+     * @return this builder
+     * @throws IOException if an I/O error occurs
+     */
+    IcnsBuilder reset() throws IOException;
+
     /**
      * Gets an instance of {@code IcnsBuilder}.
+     * <p>
+     * Icon data is stored in a temporary file, which is deleted when the builder, or the built icon data, is closed.
      *
      * @return a new instance of the builder
      */
     static IcnsBuilder getInstance() {
         return new IcnsBuilderImpl();
     }
+
+    /**
+     * Gets an instance of {@code IcnsBuilder} keeping icon data in memory up to the specified size.
+     * <p>
+     * Icon data is stored in pooled memory buffers, until its total size would exceed {@code spillThreshold};
+     * then it is moved to a temporary file, which is deleted when the builder, or the built icon data, is closed.
+     * The buffers are returned to the pool on close, so the builder, or the built icon data, should always be closed.
+     *
+     * @param spillThreshold maximum size of data kept in memory, in bytes; {@code 0} to always use a temporary file,
+     *                       as {@link #getInstance()} does, or {@link Long#MAX_VALUE} to never use it
+     * @return a new instance of the builder
+     */
+    static IcnsBuilder getInstance(long spillThreshold) {
+        return new IcnsBuilderImpl(spillThreshold);
+    }
 }
@@ -1,107 +1,441 @@
 package com.github.gino0631.icns;
 
-import com.github.gino0631.common.io.IoFiles;
 import com.github.gino0631.common.io.IoStreams;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
-import java.nio.channels.Channels;
-import java.nio.channels.SeekableByteChannel;
-import java.nio.file.Files;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 final class IcnsBuilderImpl implements IcnsBuilder {
     private static final Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
 
-    private final List<IcnsIcons.Entry> entries;
-    private final Path icnsFile;
-    private final SeekableByteChannel outputChannel;
-    private long pos;
+    // Maximum size of data of a single entry copied to the main storage once its size is known
+    private static final long STAGING_THRESHOLD = 1 << 20;
 
-    IcnsBuilderImpl() {
-        try {
-            entries = new ArrayList<>();
-            icnsFile = IoFiles.createTempFile("icns-");
-            outputChannel = Files.newByteChannel(icnsFile, StandardOpenOption.WRITE);
+    private final long spillThreshold;
+    private final long stagingThreshold;
+    // Adding is shared, so that entries can be added concurrently; building, resetting and closing are exclusive
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Slot> slots = new ArrayList<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // Contains the whole data section, i.e. entry headers along with the data
+    private ScratchStorage storage;
+    // Storage released by built icon data, to be reused after reset
+    private ScratchStorage spare;
+    // Channels of files added by reference, shared by all entries of the file
+    private Map<Path, FileChannel> files = new HashMap<>();
+    // Storages of large entries added without a known size, each containing a single entry
+    private List<ScratchStorage> stores = new ArrayList<>();
+    private boolean built;
+    private boolean closed;
+
+    /**
+     * An entry along with its position in the entry order.
+     */
+    private static final class Slot {
+        static final Comparator<Slot> ORDER = Comparator.<Slot>comparingInt(s -> s.key).thenComparingLong(s -> s.seq);
 
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        final int key;
+        final long seq;
+        final IcnsIcons.Entry entry;
+
+        Slot(int key, long seq, IcnsIcons.Entry entry) {
+            this.key = key;
+            this.seq = seq;
+            this.entry = entry;
         }
     }
 
+    IcnsBuilderImpl() {
+        this(0);
+    }
+
+    IcnsBuilderImpl(long spillThreshold) {
+        this.spillThreshold = spillThreshold;
+        this.stagingThreshold = (spillThreshold == Long.MAX_VALUE) ? Long.MAX_VALUE : IcnsIconsImpl.HEADER_SIZE + STAGING_THRESHOLD;
+        this.storage = new ScratchStorage(spillThreshold);
+    }
+
     public IcnsBuilder add(IcnsType type, InputStream input) throws IOException {
         return add(type.getOsType(), input);
     }
 
     @Override
-    public synchronized IcnsBuilder add(String osType, InputStream input) throws IOException {
-        checkNotClosed();
+    public IcnsBuilder add(String osType, InputStream input) throws IOException {
+        return add(0, osType, input);
+    }
+
+    @Override
+    public IcnsBuilder add(int key, String osType, InputStream input) throws IOException {
         Objects.requireNonNull(osType);
         Objects.requireNonNull(input);
 
-        outputChannel.position(pos);
-        final long start = pos;
+        Lock l = lock.readLock();
+        l.lock();
+
+        try {
+            checkAddable();
+            final long seq = sequence.getAndIncrement();
+
+            // The stream is read into a storage of its own, so that reading does not block other threads;
+            // the storage starts with room for the entry header, which is written once the size is known
+            ScratchStorage staging = new ScratchStorage(stagingThreshold);
+            boolean kept = false;
+
+            try {
+                staging.reserve(IcnsIconsImpl.HEADER_SIZE);
+                long size = checkSize(staging.append(input));
+
+                if (size <= STAGING_THRESHOLD) {
+                    // Small data is copied into a region of the known size
+                    long pos = reserve(osType, size);
+                    storage.write(staging, IcnsIconsImpl.HEADER_SIZE, size, pos + IcnsIconsImpl.HEADER_SIZE);
+                    addSlot(key, seq, new IcnsIconsImpl.ScratchEntryImpl(osType, IcnsType.of(osType), (int) size, storage, pos + IcnsIconsImpl.HEADER_SIZE));
+
+                } else {
+                    // Large data is not copied again; its storage is kept along with the main one
+                    writeHeader(staging, osType, size, 0);
+                    synchronized (stores) {
+                        stores.add(staging);
+                    }
+                    kept = true;
+                    addSlot(key, seq, new IcnsIconsImpl.ScratchEntryImpl(osType, IcnsType.of(osType), (int) size, staging, IcnsIconsImpl.HEADER_SIZE));
+                }
+
+            } finally {
+                if (!kept) {
+                    staging.close();
+                }
+            }
+
+        } finally {
+            l.unlock();
+        }
+
+        return this;
+    }
+
+    @Override
+    public IcnsBuilder add(int key, String osType, InputStream input, long size) throws IOException {
+        Objects.requireNonNull(osType);
+        Objects.requireNonNull(input);
+
+        Lock l = lock.readLock();
+        l.lock();
+
+        try {
+            checkAddable();
+            final long seq = sequence.getAndIncrement();
+
+            // Data is read directly into a region reserved up front
+            long pos = reserve(osType, checkSize(size));
+            storage.write(input, pos + IcnsIconsImpl.HEADER_SIZE, size);
+
+            addSlot(key, seq, new IcnsIconsImpl.ScratchEntryImpl(osType, IcnsType.of(osType), (int) size, storage, pos + IcnsIconsImpl.HEADER_SIZE));
 
-        long size = IoStreams.copy(input, Channels.newOutputStream(outputChannel));
-        entries.add(new IcnsIconsImpl.EntryImpl(osType, IcnsType.of(osType), (int) size,
-                () -> Channels.newInputStream(Files.newByteChannel(icnsFile, StandardOpenOption.READ).position(start)), 0));
-        pos += size;
+        } finally {
+            l.unlock();
+        }
+
+        return this;
+    }
+
+    @Override
+    public IcnsBuilder add(IcnsType type, Path file) throws IOException {
+        return add(type.getOsType(), file);
+    }
+
+    @Override
+    public IcnsBuilder add(String osType, Path file) throws IOException {
+        Objects.requireNonNull(osType);
+
+        Lock l = lock.readLock();
+        l.lock();
+
+        try {
+            checkAddable();
+            final long seq = sequence.getAndIncrement();
+
+            FileChannel channel = open(file);
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - IcnsIconsImpl.HEADER_SIZE) {
+                throw new IOException(MessageFormat.format("File {0} is too large ({1} bytes)", file, size));
+            }
+
+            addSlot(0, seq, new IcnsIconsImpl.ChannelEntryImpl(osType, IcnsType.of(osType), (int) size, channel, 0));
+
+        } finally {
+            l.unlock();
+        }
+
+        return this;
+    }
+
+    @Override
+    public IcnsBuilder add(IcnsType type, ByteBuffer data) {
+        return add(type.getOsType(), data);
+    }
+
+    @Override
+    public IcnsBuilder add(String osType, ByteBuffer data) {
+        Objects.requireNonNull(osType);
+
+        Lock l = lock.readLock();
+        l.lock();
+
+        try {
+            checkAddable();
+            addSlot(0, sequence.getAndIncrement(), new IcnsIconsImpl.BufferEntryImpl(osType, IcnsType.of(osType), data.slice()));
+
+        } finally {
+            l.unlock();
+        }
 
         return this;
     }
 
     @Override
-    public synchronized IcnsIcons build() {
-        checkNotClosed();
+    public IcnsBuilder add(IcnsType type, byte[] data) {
+        return add(type.getOsType(), ByteBuffer.wrap(data));
+    }
 
-        IcnsIcons icnsIcons = null;
+    @Override
+    public IcnsIcons build() {
+        Lock l = lock.writeLock();
+        l.lock();
 
         try {
-            outputChannel.close();
+            checkAddable();
+
+            // The built icon data takes over the storages and the channels, and hands the main storage back once closed
+            final ScratchStorage builtStorage = storage;
+            final Map<Path, FileChannel> builtFiles = files;
+            final List<ScratchStorage> builtStores = stores;
+            final AtomicBoolean released = new AtomicBoolean();
+            built = true;
+            files = new HashMap<>();
+            stores = new ArrayList<>();
+
+            IcnsIcons icnsIcons = null;
 
-            icnsIcons = new IcnsIconsImpl(entries, this::cleanup);
+            try {
+                slots.sort(Slot.ORDER);
+                List<IcnsIcons.Entry> entries = new ArrayList<>(slots.size());
+                for (Slot s : slots) {
+                    entries.add(s.entry);
+                }
 
-            return icnsIcons;
+                icnsIcons = new IcnsIconsImpl(entries, () -> {
+                    if (released.compareAndSet(false, true)) {
+                        recycle(builtStorage, builtFiles, builtStores);
+                    }
+                });
 
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+                return icnsIcons;
+
+            } finally {
+                if (icnsIcons == null) {
+                    // Something went wrong - clean up now
+                    IoStreams.close(() -> release(builtStorage, builtFiles, builtStores), e -> logger.log(Level.WARNING, "Error releasing ICNS builder", e));
+                }
+            }
 
         } finally {
-            if (icnsIcons == null) {
-                // Something went wrong - clean up now
-                cleanup();
+            l.unlock();
+        }
+    }
+
+    @Override
+    public IcnsBuilder reset() throws IOException {
+        Lock l = lock.writeLock();
+        l.lock();
+
+        try {
+            if (closed) {
+                throw new IllegalStateException("The builder is closed");
             }
+
+            slots.clear();
+            sequence.set(0);
+
+            if (built) {
+                built = false;
+                storage = (spare != null) ? spare : new ScratchStorage(spillThreshold);
+                spare = null;
+
+            } else {
+                closeChannels(files);
+                closeStores(stores);
+                storage.truncate(0);
+            }
+
+        } finally {
+            l.unlock();
         }
+
+        return this;
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        if (outputChannel.isOpen()) {
-            outputChannel.close();
+    public void close() throws IOException {
+        Lock l = lock.writeLock();
+        l.lock();
+
+        try {
+            if (!closed) {
+                closed = true;
 
-            cleanup();
+                try {
+                    if (!built) {
+                        release(storage, files, stores);
+                    }
+
+                } finally {
+                    if (spare != null) {
+                        spare.close();
+                        spare = null;
+                    }
+                }
+            }
+
+        } finally {
+            l.unlock();
         }
     }
 
-    private void checkNotClosed() {
-        if (!outputChannel.isOpen()) {
+    private void checkAddable() {
+        if (closed) {
             throw new IllegalStateException("The builder is closed");
         }
+
+        if (built) {
+            throw new IllegalStateException("The builder has been built, and not reset");
+        }
     }
 
-    private void cleanup() {
-        deleteTempFile(icnsFile);
+    /**
+     * Gets the shared channel of a file added by reference, opening it if necessary.
+     */
+    private FileChannel open(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+
+        synchronized (files) {
+            FileChannel channel = files.get(key);
+            if (channel == null) {
+                channel = FileChannel.open(key, StandardOpenOption.READ);
+                files.put(key, channel);
+            }
+
+            return channel;
+        }
     }
 
-    private static void deleteTempFile(Path file) {
-        IoFiles.delete(file, e -> logger.log(Level.WARNING, MessageFormat.format("Error deleting {0}", file), e));
+    /**
+     * Called when built icon data is closed; keeps its storage for reuse, unless the builder is closed, or already has one.
+     */
+    private void recycle(ScratchStorage builtStorage, Map<Path, FileChannel> builtFiles, List<ScratchStorage> builtStores) throws IOException {
+        closeChannels(builtFiles);
+        closeStores(builtStores);
+
+        Lock l = lock.writeLock();
+        l.lock();
+
+        try {
+            if (!closed && (spare == null)) {
+                builtStorage.truncate(0);
+                spare = builtStorage;
+
+                return;
+            }
+
+        } catch (IOException | RuntimeException e) {
+            IoStreams.close(builtStorage, e::addSuppressed);
+            throw e;
+
+        } finally {
+            l.unlock();
+        }
+
+        builtStorage.close();
+    }
+
+    private static void release(ScratchStorage storage, Map<Path, FileChannel> files, List<ScratchStorage> stores) throws IOException {
+        try {
+            storage.close();
+
+        } finally {
+            closeChannels(files);
+            closeStores(stores);
+        }
+    }
+
+    private static void closeChannels(Map<Path, FileChannel> files) {
+        synchronized (files) {
+            for (FileChannel channel : files.values()) {
+                IoStreams.close(channel, e -> logger.log(Level.WARNING, "Error closing ICNS builder input", e));
+            }
+            files.clear();
+        }
+    }
+
+    private static void closeStores(List<ScratchStorage> stores) {
+        synchronized (stores) {
+            for (ScratchStorage store : stores) {
+                IoStreams.close(store, e -> logger.log(Level.WARNING, "Error releasing ICNS builder storage", e));
+            }
+            stores.clear();
+        }
+    }
+
+    private static long checkSize(long size) throws IOException {
+        if ((size < 0) || (size > Integer.MAX_VALUE - IcnsIconsImpl.HEADER_SIZE)) {
+            throw new IOException(MessageFormat.format("Invalid icon size ({0})", size));
+        }
+
+        return size;
+    }
+
+    /**
+     * Reserves a region for an entry, and writes the entry header to it.
+     *
+     * @return start of the region, i.e. position of the entry header
+     */
+    private long reserve(String osType, long size) throws IOException {
+        long pos = storage.reserve(IcnsIconsImpl.HEADER_SIZE + size);
+        writeHeader(storage, osType, size, pos);
+
+        return pos;
+    }
+
+    private static void writeHeader(ScratchStorage storage, String osType, long size, long pos) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(IcnsIconsImpl.HEADER_SIZE);
+        IcnsIconsImpl.putHeader(header, IcnsIconsImpl.toInt(osType), (int) size);
+        ((Buffer) header).flip();
+        storage.write(header, pos);
+    }
+
+    private void addSlot(int key, long seq, IcnsIcons.Entry entry) {
+        synchronized (slots) {
+            slots.add(new Slot(key, seq, entry));
+        }
     }
 }
@@ -7,15 +7,32 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A representation of ICNS icon data.
+ * <p>
+ * Instances are thread-safe, so they may be cached and shared: lookups are served from indexes built when icon data
+ * is loaded or built, and entries may be read concurrently, including reads of the same entry. Entries of data opened
+ * by {@link #open(Path)} are read using positional reads on a channel shared by all entries, which do not contend
+ * on a channel position; other channels passed to {@link #load(SeekableByteChannel)} are locked for the duration
+ * of each read. Closing the instance while entries are read makes the reads fail.
+ * <p>
+ * Note that a thread interrupted while reading a {@link java.nio.channels.FileChannel} closes the channel,
+ * which makes all further reads of the entries backed by it fail; entries of data loaded by {@link #load(Path)},
+ * {@link #map(Path)}, {@link #load(ByteBuffer)} or {@link #loadAsync(Path)} are not affected.
  */
 public interface IcnsIcons extends Writable, Closeable {
     /**
      * ICNS icon entry.
+     * <p>
+     * Each call of {@link #newInputStream()} returns an independent stream, which may be read concurrently
+     * with other streams of the same entry; a single stream should not be shared between threads.
      */
     interface Entry extends InputStreamSupplier {
         /**
@@ -46,6 +63,93 @@ public interface IcnsIcons extends Writable, Closeable {
          * @throws IOException if an I/O error occurs
          */
         InputStream newInputStream() throws IOException;
+
+        /**
+         * Gets data of the entry as a read-only buffer, if the source of the entry allows it.
+         * <p>
+         * Entries backed by memory return a view of their data. Entries backed by a file, such as entries of data
+         * loaded by {@link IcnsIcons#load(Path)} or files added to a builder, return a new mapping of their data,
+         * which is released when it is garbage collected; the file must not be truncated while the mapping is in use.
+         * Each call returns a new buffer, so its position and limit may be changed freely.
+         * <p>
+         * This implementation returns {@code null}.
+         *
+         * @return read-only buffer positioned at the start of icon data, or {@code null} if the source does not allow it
+         * @throws IOException if an I/O error occurs
+         */
+        default ByteBuffer asReadOnlyBuffer() throws IOException {
+            return null;
+        }
+
+        /**
+         * Reads data of the entry into the specified buffer.
+         * <p>
+         * Bytes are read from the start of icon data until the buffer is full, or all icon data has been read,
+         * and the position of the buffer is advanced accordingly. Entries backed by a file or by a builder are read
+         * using positional reads directly into the buffer, so a direct buffer avoids copying data through the Java heap.
+         * Entries of data loaded by {@link IcnsIcons#load(Path)}, and entries of an {@link IcnsIndex}, open the file
+         * for each call, so it is cheaper to read such an entry with one call than in several parts.
+         *
+         * @param dst buffer to read into
+         * @return number of bytes read
+         * @throws IOException if an I/O error occurs
+         */
+        default int readInto(ByteBuffer dst) throws IOException {
+            int count = 0;
+
+            try (InputStream is = newInputStream()) {
+                byte[] buf = new byte[Math.min(dst.remaining(), 8192)];
+                for (int n; dst.hasRemaining() && ((n = is.read(buf, 0, Math.min(buf.length, dst.remaining()))) >= 0); count += n) {
+                    dst.put(buf, 0, n);
+                }
+            }
+
+            return count;
+        }
+
+        /**
+         * Writes data of the entry to the specified channel.
+         * <p>
+         * Entries backed by a file, or by a builder which has moved its data to a temporary file, are written using
+         * {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}, which avoids copying
+         * data through the Java heap where the operating system supports it, e.g. when writing to a socket;
+         * like {@link #readInto(ByteBuffer)}, some of them open the file for each call.
+         * The channel will not be closed afterwards.
+         *
+         * @param target channel to write to
+         * @throws IOException if an I/O error occurs
+         */
+        default void transferTo(WritableByteChannel target) throws IOException {
+            try (InputStream is = newInputStream()) {
+                IoChannels.copy(is, target);
+            }
+        }
+
+        /**
+         * Reads data of the entry into the specified buffer asynchronously.
+         * <p>
+         * Bytes are read from the start of icon data until the buffer is full, or all icon data has been read.
+         * Entries loaded by {@link IcnsIcons#loadAsync(Path)} are read without blocking the calling thread;
+         * other entries are read by the calling thread, and the returned future is already completed.
+         * The buffer must not be accessed until the future completes.
+         * <p>
+         * This implementation reads using {@link #readInto(ByteBuffer)}, and returns a completed future.
+         *
+         * @param dst buffer to read into
+         * @return future completed with the number of bytes read, or completed exceptionally if an I/O error occurs
+         */
+        default CompletableFuture<Integer> readAsync(ByteBuffer dst) {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+
+            try {
+                future.complete(readInto(dst));
+
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+
+            return future;
+        }
     }
 
     /**
@@ -55,6 +159,68 @@ public interface IcnsIcons extends Writable, Closeable {
      */
     List<Entry> getEntries();
 
+    /**
+     * Gets an icon entry of the specified type.
+     * <p>
+     * Entries are indexed when icon data is loaded or built, so this is a constant-time lookup.
+     *
+     * @param type type of the icon
+     * @return the first entry of the specified type, or {@code null} if there is none
+     */
+    Entry getEntry(IcnsType type);
+
+    /**
+     * Gets an icon entry by OSType identifier of its type.
+     * <p>
+     * Unlike {@link #getEntry(IcnsType)}, this also finds entries of types not known to {@link IcnsType}.
+     *
+     * @param osType four-byte type identifier, in big-endian order
+     * @return the first entry with the specified identifier, or {@code null} if there is none
+     * @see IcnsType#getOsTypeCode()
+     */
+    Entry getEntry(int osType);
+
+    /**
+     * Gets icon entries of the specified dimensions.
+     *
+     * @param width  width of the icon in pixels
+     * @param height height of the icon in pixels
+     * @return unmodifiable list of entries, in the order of {@link #getEntries()}; empty if there are none
+     */
+    List<Entry> getEntries(int width, int height);
+
+    /**
+     * Gets size of the icon data as written by the {@code writeTo} methods.
+     * <p>
+     * The size is computed from entry sizes, without reading icon data.
+     *
+     * @return size of the icon data in bytes, including header and TOC
+     */
+    int getSerializedSize();
+
+    /**
+     * Writes the icon data to a new byte array of the exact size.
+     *
+     * @return array containing the icon data
+     * @throws IOException if an I/O error occurs
+     * @see #writeTo(ByteBuffer)
+     */
+    byte[] toByteArray() throws IOException;
+
+    /**
+     * Writes the icon data to the specified buffer.
+     * <p>
+     * The data is written at the current position of the buffer, which is advanced by {@link #getSerializedSize()} bytes.
+     * Header and TOC are written with bulk puts, and icons are read directly into the buffer (see {@link Entry#readInto(ByteBuffer)}),
+     * so no intermediate buffers are used.
+     *
+     * @param dst buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer has fewer than {@link #getSerializedSize()} bytes remaining;
+     *                                          nothing is written in that case
+     * @throws IOException                      if an I/O error occurs
+     */
+    void writeTo(ByteBuffer dst) throws IOException;
+
     /**
      * Writes the icon data to the specified output stream.
      * <p>
@@ -65,8 +231,49 @@ public interface IcnsIcons extends Writable, Closeable {
      */
     void writeTo(OutputStream output) throws IOException;
 
+    /**
+     * Writes the icon data to the specified channel.
+     * <p>
+     * Header and TOC are written with a single buffer; data of file-backed entries is moved using
+     * {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}, which avoids
+     * copying it through the Java heap where the operating system supports it.
+     * The channel will not be closed afterwards.
+     * <p>
+     * Care must be taken not to write to the same file the data was loaded from.
+     *
+     * @param output channel to write to
+     * @throws IOException if an I/O error occurs
+     */
+    void writeTo(WritableByteChannel output) throws IOException;
+
+    /**
+     * Writes the icon data to the specified file, replacing it if it exists.
+     * <p>
+     * Care must be taken not to write to the same file the data was loaded from.
+     *
+     * @param file file to write to
+     * @throws IOException if an I/O error occurs
+     * @see #writeTo(WritableByteChannel)
+     */
+    void writeTo(Path file) throws IOException;
+
+    /**
+     * Writes the icon data to the specified file asynchronously, replacing the file if it exists.
+     * <p>
+     * The file is written using {@link java.nio.channels.AsynchronousFileChannel}, and closed when the returned future completes.
+     * Care must be taken not to write to the same file the data was loaded from.
+     *
+     * @param file file to write to
+     * @return future completed when the data has been written, or completed exceptionally if an I/O error occurs
+     */
+    CompletableFuture<Void> writeToAsync(Path file);
+
     /**
      * Loads icon data from a file.
+     * <p>
+     * Only entry headers (or the TOC) are read while loading, and the file is not kept open afterwards.
+     * Each read of an entry opens the file, reads icon data using positional reads, and closes the file again;
+     * use {@link #open(Path)} to avoid that cost when entries are read many times.
      *
      * @param file file to read from
      * @return a representation of ICNS icon data
@@ -76,6 +283,79 @@ public interface IcnsIcons extends Writable, Closeable {
         return IcnsIconsImpl.load(file);
     }
 
+    /**
+     * Loads icon data from a file, keeping the file open.
+     * <p>
+     * Unlike {@link #load(Path)}, the file is kept open until the returned object is closed, and entries are read from it
+     * using positional reads on a single channel, without opening the file again. So the returned object must be closed,
+     * and the file may not be deleted or replaced on some platforms until then.
+     *
+     * @param file file to read from
+     * @return a representation of ICNS icon data
+     * @throws IOException if an I/O error occurs
+     */
+    static IcnsIcons open(Path file) throws IOException {
+        return IcnsIconsImpl.open(file);
+    }
+
+    /**
+     * Loads icon data from a file asynchronously.
+     * <p>
+     * Only entry headers (or the TOC) are read while loading. The file is opened as
+     * {@link java.nio.channels.AsynchronousFileChannel}, and kept open until the returned object is closed;
+     * entries are read from it using {@link Entry#readAsync(ByteBuffer)} without blocking.
+     *
+     * @param file file to read from
+     * @return future completed with a representation of ICNS icon data, or completed exceptionally if an I/O error occurs
+     */
+    static CompletableFuture<IcnsIcons> loadAsync(Path file) {
+        return IcnsIconsImpl.loadAsync(file);
+    }
+
+    /**
+     * Loads icon data from a channel.
+     * <p>
+     * The data starts at the current position of the channel. Entries are read from the channel
+     * when requested, so it must be kept open while the returned object is in use;
+     * the channel will not be closed by this method, or when the returned object is closed.
+     *
+     * @param channel channel to read from
+     * @return a representation of ICNS icon data
+     * @throws IOException if an I/O error occurs
+     */
+    static IcnsIcons load(SeekableByteChannel channel) throws IOException {
+        return IcnsIconsImpl.load(channel);
+    }
+
+    /**
+     * Loads icon data from a file by mapping it into memory.
+     * <p>
+     * The file is mapped once, and each entry is served as a read-only slice of the mapping,
+     * so reading an entry does not involve reopening the file. The mapping is released when
+     * it is garbage collected; the file must not be truncated while it is in use.
+     *
+     * @param file file to map
+     * @return a representation of ICNS icon data
+     * @throws IOException if an I/O error occurs
+     */
+    static IcnsIcons map(Path file) throws IOException {
+        return IcnsIconsImpl.map(file);
+    }
+
+    /**
+     * Loads icon data from a buffer.
+     * <p>
+     * The data starts at the current position of the buffer. The buffer is not copied,
+     * so its content must not be changed while the returned object is in use.
+     *
+     * @param buffer buffer to read from
+     * @return a representation of ICNS icon data
+     * @throws IOException if the buffer does not contain valid ICNS data
+     */
+    static IcnsIcons load(ByteBuffer buffer) throws IOException {
+        return IcnsIconsImpl.load(buffer);
+    }
+
     /**
      * Loads icon data from a supplier of input streams.
      *
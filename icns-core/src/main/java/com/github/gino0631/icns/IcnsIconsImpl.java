@@ -4,34 +4,72 @@ import com.github.gino0631.common.io.InputStreamSupplier;
 import com.github.gino0631.common.io.IoStreams;
 
 import java.io.*;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 final class IcnsIconsImpl implements IcnsIcons, IcnsParser {
     private static final int MAGIC = toInt("icns");
-    private static final int HEADER_SIZE = 8;
+    private static final int TOC_TYPE = toInt(TOC);
+    static final int HEADER_SIZE = 8;
+    private static final int ASYNC_BUFFER_SIZE = 65536;
 
     private final List<Entry> entries;
+    private final Map<IcnsType, Entry> entriesByType;
+    private final IntMap<Entry> entriesByOsType;
+    private final IntMap<List<Entry>> entriesBySize;
     private final Closeable closeable;
 
-    static class EntryImpl implements Entry {
+    /**
+     * Factory of entries found while loading icon data.
+     *
+     * @param <T> type of entries
+     */
+    @FunctionalInterface
+    interface EntryFactory<T> {
+        /**
+         * Creates an entry.
+         *
+         * @param osType OSType identifier of the icon type
+         * @param type   type of the icon
+         * @param size   size of the icon
+         * @param offs   offset of icon data
+         * @return the entry
+         */
+        T newEntry(String osType, IcnsType type, int size, long offs);
+    }
+
+    @FunctionalInterface
+    private interface Parser {
+        void parse(Listener listener) throws IOException;
+    }
+
+    abstract static class AbstractEntry implements Entry {
         private final String osType;
         private final IcnsType type;
         private final int size;
-        private final InputStreamSupplier streamSupplier;
-        private final long offs;
 
-        EntryImpl(String osType, IcnsType type, int size, InputStreamSupplier streamSupplier, long offs) {
+        AbstractEntry(String osType, IcnsType type, int size) {
             this.osType = osType;
             this.type = type;
             this.size = size;
-            this.streamSupplier = streamSupplier;
-            this.offs = offs;
         }
 
         @Override
@@ -49,22 +87,418 @@ final class IcnsIconsImpl implements IcnsIcons, IcnsParser {
             return size;
         }
 
+        @Override
+        public CompletableFuture<Integer> readAsync(ByteBuffer dst) {
+            return readAsync(dst, 0);
+        }
+
+        /**
+         * Reads data of the entry, starting at the specified offset, until the buffer is full or the end of the entry is reached.
+         * <p>
+         * This implementation reads synchronously, and returns a completed future.
+         *
+         * @param dst    buffer to read into
+         * @param offset offset in icon data
+         * @return future completed with the number of bytes read
+         */
+        CompletableFuture<Integer> readAsync(ByteBuffer dst, long offset) {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+
+            try {
+                future.complete(read(dst, offset));
+
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+
+            return future;
+        }
+
+        /**
+         * Reads data of the entry, starting at the specified offset, until the buffer is full or the end of the entry is reached.
+         *
+         * @param dst    buffer to read into
+         * @param offset offset in icon data
+         * @return number of bytes read
+         * @throws IOException if an I/O error occurs
+         */
+        int read(ByteBuffer dst, long offset) throws IOException {
+            int n = length(dst, offset);
+            if (n == 0) {
+                return 0;
+            }
+
+            try (InputStream is = newInputStream()) {
+                if (IoStreams.skip(is, offset) != offset) {
+                    throw new EOFException(MessageFormat.format("Stream should contain at least {0} bytes, but it does not", offset + n));
+                }
+
+                if (dst.hasArray()) {
+                    new DataInputStream(is).readFully(dst.array(), dst.arrayOffset() + dst.position(), n);
+                    ((Buffer) dst).position(dst.position() + n);
+
+                } else {
+                    byte[] b = new byte[Math.min(n, ASYNC_BUFFER_SIZE)];
+                    DataInputStream dis = new DataInputStream(is);
+                    for (int remaining = n, k; remaining > 0; remaining -= k) {
+                        k = Math.min(remaining, b.length);
+                        dis.readFully(b, 0, k);
+                        dst.put(b, 0, k);
+                    }
+                }
+            }
+
+            return n;
+        }
+
+        /**
+         * Checks whether data of the entry can be read at any offset without reading the preceding data.
+         *
+         * @return {@code true} if {@link #readAsync(ByteBuffer, long)} is cheap for any offset
+         */
+        boolean isPositional() {
+            return false;
+        }
+
+        /**
+         * Gets number of bytes to read into a buffer, starting at the specified offset.
+         */
+        final int length(ByteBuffer dst, long offset) {
+            return (int) Math.max(0, Math.min(dst.remaining(), getSize() - offset));
+        }
+
+        @Override
+        public int readInto(ByteBuffer dst) throws IOException {
+            return read(dst, 0);
+        }
+
+        @Override
+        public abstract void transferTo(WritableByteChannel target) throws IOException;
+    }
+
+    static class EntryImpl extends AbstractEntry {
+        private final InputStreamSupplier streamSupplier;
+        private final long offs;
+
+        EntryImpl(String osType, IcnsType type, int size, InputStreamSupplier streamSupplier, long offs) {
+            super(osType, type, size);
+            this.streamSupplier = streamSupplier;
+            this.offs = offs;
+        }
+
         @Override
         public InputStream newInputStream() throws IOException {
+            return IoStreams.limit(open(), getSize());
+        }
+
+        @Override
+        public void transferTo(WritableByteChannel target) throws IOException {
+            try (InputStream is = open()) {
+                if (is instanceof FileInputStream) {
+                    IoChannels.transferFully(((FileInputStream) is).getChannel(), offs, getSize(), target);
+
+                } else {
+                    IoChannels.copy(IoStreams.limit(is, getSize()), target);
+                }
+            }
+        }
+
+        private InputStream open() throws IOException {
             InputStream is = streamSupplier.newInputStream();
             if (offs > 0) {
-                if (IoStreams.skip(is, offs) != offs) {
-                    throw new IOException(MessageFormat.format("Stream should contain at least {0} bytes, but it does not", offs + size));
+                if (is instanceof FileInputStream) {
+                    // Seek instead of reading through the preceding data
+                    FileChannel channel = ((FileInputStream) is).getChannel();
+                    if (channel.size() < offs + getSize()) {
+                        throw new IOException(MessageFormat.format("Stream should contain at least {0} bytes, but it does not", offs + getSize()));
+                    }
+                    channel.position(offs);
+
+                } else if (IoStreams.skip(is, offs) != offs) {
+                    throw new IOException(MessageFormat.format("Stream should contain at least {0} bytes, but it does not", offs + getSize()));
+                }
+            }
+
+            return is;
+        }
+    }
+
+    static class BufferEntryImpl extends AbstractEntry {
+        private final ByteBuffer data;
+
+        BufferEntryImpl(String osType, IcnsType type, ByteBuffer data) {
+            super(osType, type, data.remaining());
+            this.data = data.asReadOnlyBuffer();
+        }
+
+        @Override
+        public InputStream newInputStream() {
+            return IoBuffers.newInputStream(data);
+        }
+
+        @Override
+        public ByteBuffer asReadOnlyBuffer() {
+            return data.duplicate();
+        }
+
+        @Override
+        boolean isPositional() {
+            return true;
+        }
+
+        @Override
+        int read(ByteBuffer dst, long offset) {
+            int n = length(dst, offset);
+            if (n > 0) {
+                ByteBuffer src = data.duplicate();
+                ((Buffer) src).position((int) offset).limit((int) offset + n);
+                dst.put(src);
+            }
+
+            return n;
+        }
+
+        @Override
+        public void transferTo(WritableByteChannel target) throws IOException {
+            IoChannels.writeFully(target, data.duplicate());
+        }
+    }
+
+    static class ChannelEntryImpl extends AbstractEntry {
+        private final SeekableByteChannel channel;
+        private final long offs;
+
+        ChannelEntryImpl(String osType, IcnsType type, int size, SeekableByteChannel channel, long offs) {
+            super(osType, type, size);
+            this.channel = channel;
+            this.offs = offs;
+        }
+
+        @Override
+        public InputStream newInputStream() {
+            return IoChannels.newInputStream(channel, offs, getSize());
+        }
+
+        @Override
+        public ByteBuffer asReadOnlyBuffer() throws IOException {
+            if (channel instanceof FileChannel) {
+                return ((FileChannel) channel).map(FileChannel.MapMode.READ_ONLY, offs, getSize());
+            }
+
+            return null;
+        }
+
+        @Override
+        boolean isPositional() {
+            return true;
+        }
+
+        @Override
+        int read(ByteBuffer dst, long offset) throws IOException {
+            int n = length(dst, offset);
+            if (n > 0) {
+                ByteBuffer view = dst.duplicate();
+                ((Buffer) view).limit(view.position() + n);
+                IoChannels.readFully(channel, view, offs + offset);
+                ((Buffer) dst).position(view.position());
+            }
+
+            return n;
+        }
+
+        @Override
+        public void transferTo(WritableByteChannel target) throws IOException {
+            if (channel instanceof FileChannel) {
+                IoChannels.transferFully((FileChannel) channel, offs, getSize(), target);
+
+            } else {
+                IoChannels.copy(newInputStream(), target);
+            }
+        }
+    }
+
+    /**
+     * Entry of a file which is not kept open; each call opens the file, and closes it once done.
+     */
+    static class FileEntryImpl extends AbstractEntry {
+        private final Path file;
+        private final long offs;
+
+        FileEntryImpl(String osType, IcnsType type, int size, Path file, long offs) {
+            super(osType, type, size);
+            this.file = file;
+            this.offs = offs;
+        }
+
+        @Override
+        public InputStream newInputStream() throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+            return new FilterInputStream(IoChannels.newInputStream(channel, offs, getSize())) {
+                @Override
+                public void close() throws IOException {
+                    channel.close();
                 }
+            };
+        }
+
+        @Override
+        public ByteBuffer asReadOnlyBuffer() throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // The mapping remains valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, offs, getSize());
+            }
+        }
+
+        @Override
+        int read(ByteBuffer dst, long offset) throws IOException {
+            int n = length(dst, offset);
+            if (n > 0) {
+                ByteBuffer view = dst.duplicate();
+                ((Buffer) view).limit(view.position() + n);
+
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    IoChannels.readFully(channel, view, offs + offset);
+                }
+                ((Buffer) dst).position(view.position());
+            }
+
+            return n;
+        }
+
+        @Override
+        public void transferTo(WritableByteChannel target) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                IoChannels.transferFully(channel, offs, getSize(), target);
+            }
+        }
+    }
+
+    static class ScratchEntryImpl extends AbstractEntry {
+        private final ScratchStorage storage;
+        private final long offs;
+
+        ScratchEntryImpl(String osType, IcnsType type, int size, ScratchStorage storage, long offs) {
+            super(osType, type, size);
+            this.storage = storage;
+            this.offs = offs;
+        }
+
+        @Override
+        public InputStream newInputStream() {
+            return IoChannels.newInputStream(storage::read, offs, getSize());
+        }
+
+        @Override
+        boolean isPositional() {
+            return true;
+        }
+
+        @Override
+        int read(ByteBuffer dst, long offset) throws IOException {
+            int n = length(dst, offset);
+            if (n > 0) {
+                ByteBuffer view = dst.duplicate();
+                ((Buffer) view).limit(view.position() + n);
+                storage.read(view, offs + offset);
+                ((Buffer) dst).position(view.position());
             }
 
-            return IoStreams.limit(is, size);
+            return n;
+        }
+
+        @Override
+        public void transferTo(WritableByteChannel target) throws IOException {
+            storage.transferTo(offs, getSize(), target);
+        }
+
+        /**
+         * Gets position of the entry header, which is stored before icon data.
+         */
+        long getHeaderOffset() {
+            return offs - HEADER_SIZE;
+        }
+
+        /**
+         * Gets position following icon data.
+         */
+        long getEnd() {
+            return offs + getSize();
+        }
+
+        /**
+         * Checks whether the specified entry is stored in the same storage right after this entry.
+         */
+        boolean isFollowedBy(Entry e) {
+            return (e instanceof ScratchEntryImpl) && (((ScratchEntryImpl) e).storage == storage) && (((ScratchEntryImpl) e).getHeaderOffset() == getEnd());
+        }
+
+        /**
+         * Writes a region of the storage, containing entry headers and data, to the specified channel.
+         */
+        void transferTo(long start, long end, WritableByteChannel target) throws IOException {
+            storage.transferTo(start, end - start, target);
+        }
+    }
+
+    static class AsyncChannelEntryImpl extends AbstractEntry {
+        private final AsynchronousFileChannel channel;
+        private final long offs;
+
+        AsyncChannelEntryImpl(String osType, IcnsType type, int size, AsynchronousFileChannel channel, long offs) {
+            super(osType, type, size);
+            this.channel = channel;
+            this.offs = offs;
+        }
+
+        @Override
+        public InputStream newInputStream() {
+            return IoChannels.newInputStream((dst, pos) -> IoAsync.get(channel.read(dst, pos)), offs, getSize());
+        }
+
+        @Override
+        boolean isPositional() {
+            return true;
+        }
+
+        @Override
+        CompletableFuture<Integer> readAsync(ByteBuffer dst, long offset) {
+            int n = length(dst, offset);
+            ByteBuffer view = dst.duplicate();
+            ((Buffer) view).limit(view.position() + n);
+
+            return IoAsync.readFully(channel, view, offs + offset).thenApply(v -> {
+                ((Buffer) dst).position(view.position());
+
+                return n;
+            });
+        }
+
+        @Override
+        public void transferTo(WritableByteChannel target) throws IOException {
+            IoChannels.copy(newInputStream(), target);
         }
     }
 
     IcnsIconsImpl(List<Entry> entries, Closeable closeable) {
         this.entries = Collections.unmodifiableList(entries);
+        this.entriesByType = new EnumMap<>(IcnsType.class);
+        this.entriesByOsType = new IntMap<>(entries.size());
         this.closeable = closeable;
+
+        Map<Integer, List<Entry>> bySize = new LinkedHashMap<>();
+        for (Entry e : entries) {
+            IcnsType type = e.getType();
+            entriesByOsType.putIfAbsent(toInt(e.getOsType()), e);
+
+            if (type != null) {
+                entriesByType.putIfAbsent(type, e);
+                bySize.computeIfAbsent(sizeKey(type.getWidth(), type.getHeight()), k -> new ArrayList<>()).add(e);
+            }
+        }
+
+        this.entriesBySize = new IntMap<>(bySize.size());
+        bySize.forEach((k, v) -> entriesBySize.putIfAbsent(k, Collections.unmodifiableList(v)));
     }
 
     @Override
@@ -72,36 +506,227 @@ final class IcnsIconsImpl implements IcnsIcons, IcnsParser {
         return entries;
     }
 
+    @Override
+    public Entry getEntry(IcnsType type) {
+        return entriesByType.get(type);
+    }
+
+    @Override
+    public Entry getEntry(int osType) {
+        return entriesByOsType.get(osType);
+    }
+
+    @Override
+    public List<Entry> getEntries(int width, int height) {
+        List<Entry> result = entriesBySize.get(sizeKey(width, height));
+
+        return (result != null) ? result : Collections.emptyList();
+    }
+
+    private static int sizeKey(int width, int height) {
+        return (width << 16) | (height & 0xFFFF);
+    }
+
+    @Override
+    public int getSerializedSize() {
+        return getFileSize();
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        byte[] data = new byte[getFileSize()];
+        writeTo(ByteBuffer.wrap(data));
+
+        return data;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) throws IOException {
+        if (dst.remaining() < getFileSize()) {
+            throw new BufferOverflowException();
+        }
+
+        // Written through a view, as the byte order of the buffer may differ
+        ByteBuffer out = dst.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        // Header and TOC
+        out.put(getHeaderAndToc());
+
+        // Data
+        for (Entry e : entries) {
+            putHeader(out, toInt(e.getOsType()), e.getSize());
+
+            ByteBuffer view = out.duplicate();
+            ((Buffer) view).limit(view.position() + e.getSize());
+            if (e.readInto(view) != e.getSize()) {
+                throw new EOFException(MessageFormat.format("Entry {0} should contain {1} bytes, but it does not", e.getOsType(), e.getSize()));
+            }
+            ((Buffer) out).position(view.position());
+        }
+
+        ((Buffer) dst).position(out.position());
+    }
+
     @Override
     public void writeTo(OutputStream output) throws IOException {
-        final int tocSize = HEADER_SIZE + (entries.size() * HEADER_SIZE);
-        int fileSize = HEADER_SIZE + tocSize;
+        // For a plain FileOutputStream, this is its own file channel
+        writeTo(Channels.newChannel(output));
+        output.flush();
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel output) throws IOException {
+        // Header and TOC
+        IoChannels.writeFully(output, getHeaderAndToc());
+
+        // Data
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+
+            if (e instanceof ScratchEntryImpl) {
+                // Entries stored one after another along with their headers are written at once
+                ScratchEntryImpl first = (ScratchEntryImpl) e;
+                ScratchEntryImpl last = first;
+
+                while ((i + 1 < entries.size()) && last.isFollowedBy(entries.get(i + 1))) {
+                    last = (ScratchEntryImpl) entries.get(++i);
+                }
+
+                first.transferTo(first.getHeaderOffset(), last.getEnd(), output);
+                continue;
+            }
+
+            ((Buffer) header).clear();
+            putHeader(header, toInt(e.getOsType()), e.getSize());
+            ((Buffer) header).flip();
+            IoChannels.writeFully(output, header);
+            e.transferTo(output);
+        }
+    }
+
+    @Override
+    public void writeTo(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeTo(channel);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> writeToAsync(Path file) {
+        AsynchronousFileChannel channel;
+
+        try {
+            channel = AsynchronousFileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+        } catch (IOException | RuntimeException e) {
+            return IoAsync.failed(e);
+        }
+
+        // Entries are written one after another, copying their data through a single buffer
+        ByteBuffer head = getHeaderAndToc();
+        ByteBuffer buf = ByteBuffer.allocate(ASYNC_BUFFER_SIZE);
+        CompletableFuture<Long> future = IoAsync.writeFully(channel, head, 0).thenApply(v -> (long) head.limit());
 
         for (Entry e : entries) {
-            fileSize += (HEADER_SIZE + e.getSize());
+            future = future.thenCompose(pos -> writeAsync(channel, e, buf, pos));
+        }
+
+        return IoAsync.closing(future, channel).thenApply(pos -> null);
+    }
+
+    @FunctionalInterface
+    private interface ChunkReader {
+        CompletableFuture<Integer> read(ByteBuffer dst, long offset);
+    }
+
+    private static CompletableFuture<Long> writeAsync(AsynchronousFileChannel channel, Entry entry, ByteBuffer buf, long pos) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        putHeader(header, toInt(entry.getOsType()), entry.getSize());
+        ((Buffer) header).flip();
+
+        CompletableFuture<Void> written = IoAsync.writeFully(channel, header, pos);
+
+        if ((entry instanceof AbstractEntry) && ((AbstractEntry) entry).isPositional()) {
+            return written.thenCompose(v -> copyAsync(channel, ((AbstractEntry) entry)::readAsync, entry.getSize(), buf, 0, pos + HEADER_SIZE));
         }
 
-        // Header
-        DataOutputStream dos = new DataOutputStream(output);
-        dos.writeInt(MAGIC);
-        dos.writeInt(fileSize);
+        // Other entries are read in a single pass, through one stream kept open until the entry is written
+        return written.thenCompose(v -> {
+            DataInputStream is;
 
-        // TOC
-        dos.writeInt(toInt(TOC));
-        dos.writeInt(tocSize);
+            try {
+                is = new DataInputStream(entry.newInputStream());
+
+            } catch (IOException | RuntimeException e) {
+                return IoAsync.failed(e);
+            }
+
+            return IoAsync.closing(copyAsync(channel, (dst, offset) -> readChunk(is, dst, (int) Math.min(dst.remaining(), entry.getSize() - offset)),
+                    entry.getSize(), buf, 0, pos + HEADER_SIZE), is);
+        });
+    }
+
+    private static CompletableFuture<Long> copyAsync(AsynchronousFileChannel channel, ChunkReader reader, int size, ByteBuffer buf, long offset, long pos) {
+        if (offset >= size) {
+            return CompletableFuture.completedFuture(pos);
+        }
+
+        ((Buffer) buf).clear();
+
+        return reader.read(buf, offset).thenCompose(n -> {
+            ((Buffer) buf).flip();
+
+            return IoAsync.writeFully(channel, buf, pos).thenCompose(v -> copyAsync(channel, reader, size, buf, offset + n, pos + n));
+        });
+    }
+
+    /**
+     * Reads the specified number of bytes from a stream into a heap buffer.
+     */
+    private static CompletableFuture<Integer> readChunk(DataInputStream is, ByteBuffer dst, int count) {
+        try {
+            is.readFully(dst.array(), dst.arrayOffset() + dst.position(), count);
+            ((Buffer) dst).position(dst.position() + count);
+
+            return CompletableFuture.completedFuture(count);
+
+        } catch (IOException | RuntimeException e) {
+            return IoAsync.failed(e);
+        }
+    }
+
+    private ByteBuffer getHeaderAndToc() {
+        final int tocSize = getTocSize();
+        final int fileSize = getFileSize();
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + tocSize);
+        buf.putInt(MAGIC).putInt(fileSize);
+        putHeader(buf, TOC_TYPE, tocSize - HEADER_SIZE);
         for (Entry e : entries) {
-            dos.writeInt(toInt(e.getOsType()));
-            dos.writeInt(HEADER_SIZE + e.getSize());
+            putHeader(buf, toInt(e.getOsType()), e.getSize());
         }
+        ((Buffer) buf).flip();
+
+        return buf;
+    }
+
+    static void putHeader(ByteBuffer buf, int osType, int size) {
+        buf.putInt(osType).putInt(HEADER_SIZE + size);
+    }
+
+    private int getTocSize() {
+        return HEADER_SIZE + (entries.size() * HEADER_SIZE);
+    }
+
+    private int getFileSize() {
+        int fileSize = HEADER_SIZE + getTocSize();
 
-        // Data
         for (Entry e : entries) {
-            dos.writeInt(toInt(e.getOsType()));
-            dos.writeInt(HEADER_SIZE + e.getSize());
-            IoStreams.copy(e.newInputStream(), dos);
+            fileSize += (HEADER_SIZE + e.getSize());
         }
 
-        dos.flush();
+        return fileSize;
     }
 
     @Override
@@ -112,96 +737,365 @@ final class IcnsIconsImpl implements IcnsIcons, IcnsParser {
     }
 
     static IcnsIcons load(Path file) throws IOException {
-        return load(InputStreamSupplier.of(file));
+        List<Entry> entries;
+
+        // The channel is only used to read entry headers; entries open the file again whenever they are read
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            entries = index(channel, (osType, type, size, offs) -> new FileEntryImpl(osType, type, size, file, offs));
+        }
+
+        return new IcnsIconsImpl(entries, null);
     }
 
-    static IcnsIcons load(InputStreamSupplier streamSupplier) throws IOException {
+    static IcnsIcons open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            return load(channel, channel);
+
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static IcnsIcons load(SeekableByteChannel channel) throws IOException {
+        return load(channel, null);
+    }
+
+    private static IcnsIcons load(SeekableByteChannel channel, Closeable closeable) throws IOException {
+        List<Entry> entries = index(channel, (osType, type, size, offs) -> new ChannelEntryImpl(osType, type, size, channel, offs));
+
+        return new IcnsIconsImpl(entries, closeable);
+    }
+
+    /**
+     * Creates entries for icons of data read from a channel, without reading icon data.
+     *
+     * @param channel      channel to read from; the data starts at its current position
+     * @param entryFactory factory of entries, called with offsets of icon data in the channel
+     * @param <T>          type of entries
+     * @return list of entries
+     * @throws IOException if an I/O error occurs, or the data is not valid
+     */
+    static <T> List<T> index(SeekableByteChannel channel, EntryFactory<T> entryFactory) throws IOException {
+        final long start = channel.position();
+
+        // Only entry headers (or the TOC) are read, skipping over icon data
+        return index(listener -> parse(channel, listener), channel.size() - start,
+                (osType, type, size, offs) -> entryFactory.newEntry(osType, type, size, start + offs));
+    }
+
+    static IcnsIcons map(Path file) throws IOException {
+        return load(mapAll(file));
+    }
+
+    /**
+     * Maps the whole file into memory.
+     */
+    static ByteBuffer mapAll(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(MessageFormat.format("File {0} is too large ({1} bytes)", file, channel.size()));
+            }
+
+            // The mapping remains valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    static IcnsIcons load(ByteBuffer buffer) throws IOException {
         List<Entry> entries = new ArrayList<>();
 
-        try (InputStream is = streamSupplier.newInputStream()) {
-            parse(is, new Listener() {
-                byte[] buf = new byte[4];
-                long offs = HEADER_SIZE;
+        // Entry headers are read in place, so there is no need to consult the TOC
+        parse(buffer, (osType, offset, size, data) -> {
+            if (osType != TOC_TYPE) {
+                entries.add(new BufferEntryImpl(toStr(osType), IcnsType.of(osType), data.slice()));
+            }
 
-                @Override
-                public boolean onIcon(String osType, IcnsType type, int size, InputStream input) throws IOException {
-                    if (osType.equals(TOC)) {
-                        if ((offs != HEADER_SIZE) || !entries.isEmpty()) {
-                            throw new IllegalStateException("TOC is supposed to be the first entry");
-                        }
+            return true;
+        });
 
-                        offs += HEADER_SIZE;
-                        offs += size;
+        return new IcnsIconsImpl(entries, null);
+    }
 
-                        AtomicLong inputCounter = new AtomicLong();
-                        DataInputStream dis = new DataInputStream(IoStreams.count(input, inputCounter::addAndGet));
+    static CompletableFuture<IcnsIcons> loadAsync(Path file) {
+        AsynchronousFileChannel channel;
 
-                        while (inputCounter.get() < size) {
-                            dis.readFully(buf);
-                            int len = dis.readInt();
+        try {
+            channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ);
 
-                            entries.add(new EntryImpl(toStr(buf), IcnsType.of(toInt(buf)), len - HEADER_SIZE, streamSupplier, offs + HEADER_SIZE));
-                            offs += len;
-                        }
+        } catch (IOException | RuntimeException e) {
+            return IoAsync.failed(e);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        return IoAsync.readFully(channel, header, 0)
+                .thenCompose(v -> {
+                    if (header.getInt(0) != MAGIC) {
+                        return IoAsync.failed(new IOException("Not an ICNS stream"));
+                    }
+
+                    final int fileSize = header.getInt(4);
 
-                        return false;
+                    try {
+                        if ((fileSize < HEADER_SIZE) || (fileSize > channel.size())) {
+                            return IoAsync.failed(new IOException(MessageFormat.format("Illegal file size ({0})", fileSize)));
+                        }
 
-                    } else {
-                        offs += HEADER_SIZE;
-                        entries.add(new EntryImpl(osType, type, size, streamSupplier, offs));
-                        offs += size;
+                    } catch (IOException e) {
+                        return IoAsync.failed(e);
+                    }
 
-                        return true;
+                    return indexAsync(channel, header, fileSize, HEADER_SIZE, new ArrayList<>());
+                })
+                .<IcnsIcons>thenApply(entries -> new IcnsIconsImpl(entries, channel))
+                .whenComplete((icons, e) -> {
+                    if (e != null) {
+                        IoStreams.close(channel, e::addSuppressed);
                     }
+                });
+    }
+
+    /**
+     * Reads entry headers one after another, or the TOC if it is the first entry.
+     */
+    private static CompletableFuture<List<Entry>> indexAsync(AsynchronousFileChannel channel, ByteBuffer header, int fileSize, long offs, List<Entry> entries) {
+        if (offs >= fileSize) {
+            return CompletableFuture.completedFuture(entries);
+        }
+
+        final EntryFactory<Entry> entryFactory = (osType, type, size, o) -> new AsyncChannelEntryImpl(osType, type, size, channel, o);
+        ((Buffer) header).clear();
+
+        return IoAsync.readFully(channel, header, offs).thenCompose(v -> {
+            int osType = header.getInt(0);
+            int len = header.getInt(4);
+            if ((len < HEADER_SIZE) || (len > fileSize - offs)) {
+                return IoAsync.failed(new IOException(MessageFormat.format("Illegal icon size ({0})", len - HEADER_SIZE)));
+            }
+
+            if (osType == TOC_TYPE) {
+                if (offs != HEADER_SIZE) {
+                    return IoAsync.failed(new IllegalStateException("TOC is supposed to be the first entry"));
                 }
-            });
+
+                ByteBuffer toc = ByteBuffer.allocate(len - HEADER_SIZE);
+
+                return IoAsync.readFully(channel, toc, offs + HEADER_SIZE).thenCompose(w -> {
+                    ((Buffer) toc).flip();
+
+                    try {
+                        readToc(toc, offs + len, fileSize, entries, entryFactory);
+
+                    } catch (IOException e) {
+                        return IoAsync.failed(e);
+                    }
+
+                    return CompletableFuture.completedFuture(entries);
+                });
+
+            } else {
+                entries.add(entryFactory.newEntry(toStr(osType), IcnsType.of(osType), len - HEADER_SIZE, offs + HEADER_SIZE));
+
+                return indexAsync(channel, header, fileSize, offs + len, entries);
+            }
+        });
+    }
+
+    static IcnsIcons load(InputStreamSupplier streamSupplier) throws IOException {
+        List<Entry> entries;
+
+        try (InputStream is = streamSupplier.newInputStream()) {
+            entries = index(listener -> parse(is, listener), Long.MAX_VALUE, (osType, type, size, offs) -> new EntryImpl(osType, type, size, streamSupplier, offs));
         }
 
         return new IcnsIconsImpl(entries, null);
     }
 
+    /**
+     * Creates entries for icons reported by a parser, or listed in the TOC.
+     *
+     * @param parser       parser to use
+     * @param end          offset of the end of data, or {@link Long#MAX_VALUE} if it is not known
+     * @param entryFactory factory of entries
+     * @param <T>          type of entries
+     * @return list of entries
+     * @throws IOException if an I/O error occurs, or the data is not valid
+     */
+    private static <T> List<T> index(Parser parser, long end, EntryFactory<T> entryFactory) throws IOException {
+        List<T> entries = new ArrayList<>();
+
+        parser.parse(new Listener() {
+            long offs = HEADER_SIZE;
+
+            @Override
+            public boolean onIcon(String osType, IcnsType type, int size, InputStream input) throws IOException {
+                if (osType.equals(TOC)) {
+                    if ((offs != HEADER_SIZE) || !entries.isEmpty()) {
+                        throw new IllegalStateException("TOC is supposed to be the first entry");
+                    }
+
+                    // Read the whole TOC at once
+                    ByteBuffer toc = ByteBuffer.allocate(size);
+                    new DataInputStream(input).readFully(toc.array());
+                    readToc(toc, offs + HEADER_SIZE + size, end, entries, entryFactory);
+
+                    return false;
+
+                } else {
+                    offs += HEADER_SIZE;
+                    entries.add(entryFactory.newEntry(osType, type, size, offs));
+                    offs += size;
+
+                    return true;
+                }
+            }
+        });
+
+        return entries;
+    }
+
+    /**
+     * Adds entries listed in the TOC.
+     *
+     * @param toc          TOC data, without its header
+     * @param offs         offset of the first entry header
+     * @param end          offset of the end of data, which entries must not extend past
+     * @param entries      list to add entries to
+     * @param entryFactory factory of entries
+     * @param <T>          type of entries
+     * @throws IOException if the TOC contains an illegal icon size
+     */
+    private static <T> void readToc(ByteBuffer toc, long offs, long end, List<T> entries, EntryFactory<T> entryFactory) throws IOException {
+        while (toc.remaining() >= HEADER_SIZE) {
+            int tocType = toc.getInt();
+            int len = toc.getInt();
+            if ((len < HEADER_SIZE) || (len > end - offs)) {
+                throw new IOException(MessageFormat.format("Illegal icon size ({0})", len - HEADER_SIZE));
+            }
+
+            entries.add(entryFactory.newEntry(toStr(tocType), IcnsType.of(tocType), len - HEADER_SIZE, offs + HEADER_SIZE));
+            offs += len;
+        }
+    }
+
     static void parse(InputStream input, Listener handler) throws IOException {
-        AtomicLong inputCounter = new AtomicLong();
-        DataInputStream dis = new DataInputStream(IoStreams.count(input, inputCounter::addAndGet));
+        IcnsStreamReader reader = new IcnsStreamReader(input, HEADER_SIZE);
 
-        if (dis.readInt() != MAGIC) {
+        if (reader.readInt() != MAGIC) {
             throw new IOException("Not an ICNS stream");
         }
 
-        final int fileSize = dis.readInt();
-        byte[] buf = new byte[4];
+        final int fileSize = reader.readInt();
+        reader.setEnd(fileSize);
+
+        while (reader.position() < fileSize) {
+            int osType = reader.readInt();
+            int iconSize = reader.readInt() - HEADER_SIZE;
+            if ((iconSize < 0) || (iconSize > fileSize - reader.position())) {
+                throw new IOException(MessageFormat.format("Illegal icon size ({0})", iconSize));
+            }
+            IcnsStreamReader.EntryStream iconStream = reader.newEntryStream(iconSize);
+
+            if (!handler.onIcon(toStr(osType), IcnsType.of(osType), iconSize, iconStream)) {
+                break;
+            }
+
+            iconStream.skipRemaining();
+        }
+    }
 
-        while (inputCounter.get() < fileSize) {
-            dis.readFully(buf);
-            IcnsType icnsType = IcnsType.of(toInt(buf));
+    static void parse(SeekableByteChannel channel, Listener listener) throws IOException {
+        final long start = channel.position();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
 
-            int iconSize = dis.readInt() - HEADER_SIZE;
-            if (iconSize < 0) {
+        IoChannels.readFully(channel, header, start);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not an ICNS stream");
+        }
+
+        final int fileSize = header.getInt(4);
+        if ((fileSize < HEADER_SIZE) || (fileSize > channel.size() - start)) {
+            throw new IOException(MessageFormat.format("Illegal file size ({0})", fileSize));
+        }
+
+        // Jump from header to header, reading icon data only if the listener asks for it
+        for (long offs = HEADER_SIZE; offs < fileSize; ) {
+            ((Buffer) header).clear();
+            IoChannels.readFully(channel, header, start + offs);
+
+            int osType = header.getInt(0);
+            int iconSize = header.getInt(4) - HEADER_SIZE;
+            if ((iconSize < 0) || (iconSize > fileSize - offs - HEADER_SIZE)) {
                 throw new IOException(MessageFormat.format("Illegal icon size ({0})", iconSize));
             }
-            InputStream iconStream = IoStreams.closeProtect(IoStreams.limit(dis, iconSize));
+            InputStream iconStream = IoChannels.newInputStream(channel, start + offs + HEADER_SIZE, iconSize);
 
-            if (!handler.onIcon(toStr(buf), icnsType, iconSize, iconStream)) {
+            if (!listener.onIcon(toStr(osType), IcnsType.of(osType), iconSize, iconStream)) {
                 break;
             }
 
-            IoStreams.skip(iconStream, iconSize);
+            offs += HEADER_SIZE + iconSize;
         }
     }
 
-    static int toInt(String typeStr) {
-        return toInt(typeStr.getBytes(StandardCharsets.US_ASCII));
+    static void parse(ByteBuffer buffer, BufferListener listener) throws IOException {
+        final int base = buffer.position();
+        final int available = buffer.remaining();
+        final ByteBuffer buf = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        if ((available < HEADER_SIZE) || (buf.getInt(base) != MAGIC)) {
+            throw new IOException("Not an ICNS stream");
+        }
+
+        final int fileSize = buf.getInt(base + 4);
+        if ((fileSize < HEADER_SIZE) || (fileSize > available)) {
+            throw new IOException(MessageFormat.format("Illegal file size ({0})", fileSize));
+        }
+
+        // The view passed to the listener is reused for all entries
+        final ByteBuffer view = buffer.duplicate();
+
+        for (int offs = HEADER_SIZE; offs < fileSize; ) {
+            if (fileSize - offs < HEADER_SIZE) {
+                throw new IOException(MessageFormat.format("Truncated entry header at offset {0}", offs));
+            }
+
+            int osType = buf.getInt(base + offs);
+            int len = buf.getInt(base + offs + 4);
+            if ((len < HEADER_SIZE) || (len > fileSize - offs)) {
+                throw new IOException(MessageFormat.format("Illegal icon size ({0})", len - HEADER_SIZE));
+            }
+
+            ((Buffer) view).limit(base + offs + len);
+            ((Buffer) view).position(base + offs + HEADER_SIZE);
+
+            if (!listener.onIcon(osType, offs + HEADER_SIZE, len - HEADER_SIZE, view)) {
+                break;
+            }
+
+            offs += len;
+        }
     }
 
-    private static int toInt(byte[] typeBytes) {
-        if (typeBytes.length != 4) {
+    static int toInt(String typeStr) {
+        if (typeStr.length() != 4) {
             throw new IllegalArgumentException("OSType must consist of exactly four characters");
         }
 
-        return (typeBytes[0] << 24) | (typeBytes[1] << 16) | (typeBytes[2] << 8) | typeBytes[3];
+        int result = 0;
+        for (int i = 0; i < 4; i++) {
+            char c = typeStr.charAt(i);
+            // Same as encoding to US-ASCII, but without allocating a byte array
+            result = (result << 8) | ((c < 0x80) ? c : '?');
+        }
+
+        return result;
     }
 
-    private static String toStr(byte[] typeBytes) {
-        return new String(typeBytes, StandardCharsets.US_ASCII);
+    static String toStr(int type) {
+        return new String(new byte[]{(byte) (type >>> 24), (byte) (type >>> 16), (byte) (type >>> 8), (byte) type}, StandardCharsets.US_ASCII);
     }
 }
@@ -0,0 +1,432 @@
+package com.github.gino0631.icns;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Persistent index of entries of ICNS files.
+ * <p>
+ * The index is stored in a binary file, which is memory-mapped when opened, and looked up in place:
+ * files are found by a binary search of their paths, and entries of each file are stored next to each other.
+ * Entries returned by the index read icon data directly from the indexed offsets, without parsing the ICNS file;
+ * indexed files must not be modified until the index is {@link #refresh(Path, Path, int) refreshed}. The entries
+ * do not keep files open: each read of an entry opens the file, reads icon data using positional reads,
+ * and closes the file again, so reading an entry in several small parts costs an open per part.
+ * <p>
+ * Index file format (all integers are big-endian):
+ * <pre>
+ * header:  int magic ("icnx"), int version, int fileCount, int entryCount
+ * files:   fileCount records, sorted by path bytes:
+ *          int pathOffset, int pathLength, long size, long lastModified, int firstEntry, int entryCount
+ * entries: entryCount records: int fileId, int osType, long offset, int size
+ * paths:   UTF-8 encoded absolute paths
+ * </pre>
+ * Instances are thread-safe.
+ */
+public final class IcnsIndex implements Closeable {
+    private static final int MAGIC = IcnsIconsImpl.toInt("icnx");
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int FILE_RECORD_SIZE = 32;
+    private static final int ENTRY_RECORD_SIZE = 20;
+
+    private volatile ByteBuffer buffer;
+    private final int fileCount;
+    private final int entryCount;
+    private final int entriesStart;
+    private final int pathsStart;
+
+    private IcnsIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() == 0) {
+            // An empty index
+            this.fileCount = 0;
+            this.entryCount = 0;
+            this.entriesStart = HEADER_SIZE;
+            this.pathsStart = HEADER_SIZE;
+
+        } else {
+            if ((buffer.remaining() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC)) {
+                throw new IOException("Not an ICNS index");
+            }
+
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException(MessageFormat.format("Unsupported ICNS index version ({0})", buffer.getInt(4)));
+            }
+
+            int fileCount = buffer.getInt(8);
+            int entryCount = buffer.getInt(12);
+            // Computed as long, so that corrupt counts cannot overflow
+            long entriesStart = HEADER_SIZE + (long) fileCount * FILE_RECORD_SIZE;
+            long pathsStart = entriesStart + (long) entryCount * ENTRY_RECORD_SIZE;
+
+            if ((fileCount < 0) || (entryCount < 0) || (pathsStart > buffer.remaining())) {
+                throw new IOException("Truncated ICNS index");
+            }
+
+            // File records are checked up front, so that lookups cannot run outside of the tables
+            for (int fileId = 0; fileId < fileCount; fileId++) {
+                int rec = HEADER_SIZE + fileId * FILE_RECORD_SIZE;
+                int pathOffset = buffer.getInt(rec);
+                int pathLength = buffer.getInt(rec + 4);
+                int firstEntry = buffer.getInt(rec + 24);
+                int fileEntryCount = buffer.getInt(rec + 28);
+
+                if ((pathOffset < 0) || (pathLength < 0) || (pathsStart + pathOffset + pathLength > buffer.remaining())
+                        || (firstEntry < 0) || (fileEntryCount < 0) || ((long) firstEntry + fileEntryCount > entryCount)) {
+                    throw new IOException(MessageFormat.format("Corrupt ICNS index (file record {0})", fileId));
+                }
+            }
+
+            this.fileCount = fileCount;
+            this.entryCount = entryCount;
+            this.entriesStart = (int) entriesStart;
+            this.pathsStart = (int) pathsStart;
+        }
+
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens an index file.
+     *
+     * @param indexFile index file; if it does not exist, the returned index is empty
+     * @return the index
+     * @throws IOException if an I/O error occurs, or the file is not a valid index file
+     */
+    public static IcnsIndex open(Path indexFile) throws IOException {
+        return open(indexFile, true);
+    }
+
+    private static IcnsIndex open(Path indexFile, boolean map) throws IOException {
+        if (!Files.exists(indexFile)) {
+            return new IcnsIndex(ByteBuffer.allocate(0));
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(MessageFormat.format("ICNS index is too large ({0} bytes)", size));
+            }
+
+            if (map) {
+                // The mapping remains valid after the channel is closed
+                return new IcnsIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            IoChannels.readFully(channel, buf, 0);
+            ((Buffer) buf).flip();
+
+            return new IcnsIndex(buf);
+        }
+    }
+
+    /**
+     * Updates an index file with ICNS files of a directory tree.
+     * <p>
+     * Only files which are not in the index, or whose size or last modification time have changed, are scanned;
+     * entries of other files are taken from the index. Files which are no longer found in the tree,
+     * or could not be scanned, are dropped from the index. The index file is replaced atomically where supported,
+     * so indexes opened before remain usable.
+     * <p>
+     * The previous index is read into memory rather than mapped, so that this method does not keep the index file
+     * mapped while replacing it. However, a mapping of an index opened by {@link #open(Path)} is only released when
+     * it is garbage collected, even if the index is closed, and on Windows a mapped file cannot be replaced;
+     * so there, this method may fail with an {@link IOException} while such an index is still reachable.
+     *
+     * @param indexFile   index file, which is created if it does not exist
+     * @param root        root of the tree
+     * @param parallelism number of threads to use for scanning
+     * @return the updated index
+     * @throws IOException if an I/O error occurs
+     * @see IcnsScanner#scan(Path, int, java.util.function.Consumer)
+     */
+    public static IcnsIndex refresh(Path indexFile, Path root, int parallelism) throws IOException {
+        List<IcnsScanner.FileResult> results = new ArrayList<>();
+
+        try (IcnsIndex previous = open(indexFile, false)) {
+            IcnsScanner.scan(root.toAbsolutePath().normalize(), parallelism, previous::scan, results::add);
+        }
+
+        results.removeIf(r -> r.getError() != null);
+        write(indexFile, results);
+
+        return open(indexFile);
+    }
+
+    /**
+     * Gets number of indexed files.
+     *
+     * @return number of files
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Gets entries of an indexed file.
+     *
+     * @param file ICNS file
+     * @return unmodifiable list of entries, in the order of the file; empty if the file is not indexed
+     */
+    public List<IcnsIcons.Entry> getEntries(Path file) {
+        ByteBuffer buf = getBuffer();
+        Path path = normalize(file);
+        int fileId = find(buf, key(path));
+        if (fileId < 0) {
+            return Collections.emptyList();
+        }
+
+        int rec = HEADER_SIZE + fileId * FILE_RECORD_SIZE;
+        int first = buf.getInt(rec + 24);
+        int count = buf.getInt(rec + 28);
+        List<IcnsIcons.Entry> entries = new ArrayList<>(count);
+
+        for (int i = first; i < first + count; i++) {
+            entries.add(newEntry(buf, i, path));
+        }
+
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Gets an entry of an indexed file by OSType identifier of its type.
+     *
+     * @param file   ICNS file
+     * @param osType four-byte type identifier, in big-endian order
+     * @return the first entry with the specified identifier, or {@code null} if there is none, or the file is not indexed
+     */
+    public IcnsIcons.Entry getEntry(Path file, int osType) {
+        ByteBuffer buf = getBuffer();
+        Path path = normalize(file);
+        int fileId = find(buf, key(path));
+        if (fileId < 0) {
+            return null;
+        }
+
+        int rec = HEADER_SIZE + fileId * FILE_RECORD_SIZE;
+        int first = buf.getInt(rec + 24);
+        int count = buf.getInt(rec + 28);
+
+        for (int i = first; i < first + count; i++) {
+            if (buf.getInt(entriesStart + i * ENTRY_RECORD_SIZE + 4) == osType) {
+                return newEntry(buf, i, path);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets an entry of an indexed file of the specified type.
+     *
+     * @param file ICNS file
+     * @param type type of the icon
+     * @return the first entry of the specified type, or {@code null} if there is none, or the file is not indexed
+     */
+    public IcnsIcons.Entry getEntry(Path file, IcnsType type) {
+        return getEntry(file, type.getOsTypeCode());
+    }
+
+    /**
+     * Closes the index.
+     * <p>
+     * Entries obtained from the index remain usable. The mapping is released when it is garbage collected.
+     */
+    @Override
+    public void close() {
+        buffer = null;
+    }
+
+    private ByteBuffer getBuffer() {
+        ByteBuffer buf = buffer;
+        if (buf == null) {
+            throw new IllegalStateException("The index is closed");
+        }
+
+        return buf;
+    }
+
+    private IcnsIcons.Entry newEntry(ByteBuffer buf, int entryId, Path file) {
+        int rec = entriesStart + entryId * ENTRY_RECORD_SIZE;
+        int osType = buf.getInt(rec + 4);
+
+        return new IcnsIconsImpl.FileEntryImpl(IcnsIconsImpl.toStr(osType), IcnsType.of(osType), buf.getInt(rec + 16), file, buf.getLong(rec + 8));
+    }
+
+    /**
+     * Scans a file, unless it is indexed with the same size and last modification time.
+     */
+    private IcnsScanner.FileResult scan(Path file) {
+        try {
+            ByteBuffer buf = getBuffer();
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            int fileId = find(buf, key(file));
+
+            if (fileId >= 0) {
+                int rec = HEADER_SIZE + fileId * FILE_RECORD_SIZE;
+                long size = buf.getLong(rec + 8);
+                long lastModified = buf.getLong(rec + 16);
+
+                if ((size == attrs.size()) && (lastModified == attrs.lastModifiedTime().toMillis())) {
+                    int first = buf.getInt(rec + 24);
+                    int count = buf.getInt(rec + 28);
+                    List<IcnsScanner.EntryInfo> entries = new ArrayList<>(count);
+
+                    for (int i = first; i < first + count; i++) {
+                        int e = entriesStart + i * ENTRY_RECORD_SIZE;
+                        int osType = buf.getInt(e + 4);
+                        entries.add(new IcnsScanner.EntryInfo(IcnsIconsImpl.toStr(osType), IcnsType.of(osType), buf.getLong(e + 8), buf.getInt(e + 16)));
+                    }
+
+                    return new IcnsScanner.FileResult(file, size, lastModified, entries, null);
+                }
+            }
+
+        } catch (IOException e) {
+            return new IcnsScanner.FileResult(file, -1, -1, Collections.emptyList(), e);
+        }
+
+        return IcnsScanner.scan(file);
+    }
+
+    /**
+     * Finds a file by its path.
+     *
+     * @return index of the file record, or {@code -1} if not found
+     */
+    private int find(ByteBuffer buf, byte[] key) {
+        int lo = 0;
+        int hi = fileCount - 1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int rec = HEADER_SIZE + mid * FILE_RECORD_SIZE;
+            int c = compare(buf, pathsStart + buf.getInt(rec), buf.getInt(rec + 4), key);
+
+            if (c < 0) {
+                lo = mid + 1;
+
+            } else if (c > 0) {
+                hi = mid - 1;
+
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int compare(ByteBuffer buf, int offs, int len, byte[] key) {
+        int n = Math.min(len, key.length);
+
+        for (int i = 0; i < n; i++) {
+            int c = (buf.get(offs + i) & 0xFF) - (key[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+
+        return len - key.length;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        return compare(ByteBuffer.wrap(a), 0, a.length, b);
+    }
+
+    private static Path normalize(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
+    private static byte[] key(Path file) {
+        return normalize(file).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void write(Path indexFile, List<IcnsScanner.FileResult> results) throws IOException {
+        int fileCount = results.size();
+        int entryCount = 0;
+        int pathsSize = 0;
+        List<byte[]> keys = new ArrayList<>(fileCount);
+        List<Integer> order = new ArrayList<>(fileCount);
+
+        for (int i = 0; i < fileCount; i++) {
+            byte[] key = key(results.get(i).getFile());
+            keys.add(key);
+            order.add(i);
+            entryCount += results.get(i).getEntries().size();
+            pathsSize += key.length;
+        }
+
+        order.sort((a, b) -> compare(keys.get(a), keys.get(b)));
+
+        long total = (long) HEADER_SIZE + (long) fileCount * FILE_RECORD_SIZE + (long) entryCount * ENTRY_RECORD_SIZE + pathsSize;
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException(MessageFormat.format("ICNS index would be too large ({0} bytes)", total));
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate((int) total);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(fileCount).putInt(entryCount);
+
+        int entriesStart = HEADER_SIZE + fileCount * FILE_RECORD_SIZE;
+        int pathsStart = entriesStart + entryCount * ENTRY_RECORD_SIZE;
+        int entryId = 0;
+        int pathOffset = 0;
+
+        for (int fileId = 0; fileId < fileCount; fileId++) {
+            IcnsScanner.FileResult r = results.get(order.get(fileId));
+            byte[] key = keys.get(order.get(fileId));
+
+            buf.putInt(pathOffset).putInt(key.length).putLong(r.getSize()).putLong(r.getLastModified())
+                    .putInt(entryId).putInt(r.getEntries().size());
+
+            for (IcnsScanner.EntryInfo e : r.getEntries()) {
+                int rec = entriesStart + entryId * ENTRY_RECORD_SIZE;
+                buf.putInt(rec, fileId).putInt(rec + 4, IcnsIconsImpl.toInt(e.getOsType())).putLong(rec + 8, e.getOffset()).putInt(rec + 16, e.getSize());
+                entryId++;
+            }
+
+            for (int i = 0; i < key.length; i++) {
+                buf.put(pathsStart + pathOffset + i, key[i]);
+            }
+            pathOffset += key.length;
+        }
+
+        ((Buffer) buf).clear();
+
+        // Write to a temporary file, so that readers never see a partially written index
+        Path dir = indexFile.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile((dir != null) ? dir : Paths.get(""), "icnx-", ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                IoChannels.writeFully(channel, buf);
+            }
+
+            try {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
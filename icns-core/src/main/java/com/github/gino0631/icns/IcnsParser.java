@@ -2,8 +2,12 @@ package com.github.gino0631.icns;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
 
 /**
  * ICNS format parser.
@@ -28,6 +32,40 @@ public interface IcnsParser {
         boolean onIcon(String osType, IcnsType type, int size, InputStream input) throws IOException;
     }
 
+    @FunctionalInterface
+    interface BufferListener {
+        /**
+         * Listener method called when an icon is found.
+         * <p>
+         * The same buffer object is passed for every icon, with its position and limit set to the bounds of icon data,
+         * so the buffer is only valid during the call; use {@link ByteBuffer#slice()} to retain icon data.
+         * The listener may change position and limit of the buffer.
+         *
+         * @param osType OSType identifier of the icon type, as a big-endian integer
+         * @param offset offset of icon data from the start of ICNS data
+         * @param size   size of the icon
+         * @param data   buffer containing icon data between its position and limit
+         * @return {@code true} to continue parsing, {@code false} to stop
+         * @throws IOException if an I/O error occurs
+         */
+        boolean onIcon(int osType, int offset, int size, ByteBuffer data) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface EntryProcessor {
+        /**
+         * Processor method called with data of an icon, on a thread of the executor passed to the parser.
+         * <p>
+         * Several icons may be processed concurrently, and in any order.
+         *
+         * @param osType OSType identifier of the icon type
+         * @param type   type of the icon
+         * @param data   read-only buffer containing icon data between its position and limit, which may be retained
+         * @throws IOException if an I/O error occurs
+         */
+        void process(String osType, IcnsType type, ByteBuffer data) throws IOException;
+    }
+
     /**
      * Parses the provided ICNS file.
      *
@@ -36,11 +74,25 @@ public interface IcnsParser {
      * @throws IOException if an I/O error occurs
      */
     static void parse(Path file, Listener listener) throws IOException {
-        try (InputStream is = Files.newInputStream(file)) {
-            parse(is, listener);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            parse(channel, listener);
         }
     }
 
+    /**
+     * Parses ICNS data from the provided channel.
+     * <p>
+     * The data starts at the current position of the channel. Only entry headers are read, jumping over icon data,
+     * unless the listener reads it. The channel will not be closed afterwards, and its position is not changed.
+     *
+     * @param channel  ICNS channel
+     * @param listener event listener
+     * @throws IOException if an I/O error occurs
+     */
+    static void parse(SeekableByteChannel channel, Listener listener) throws IOException {
+        IcnsIconsImpl.parse(channel, listener);
+    }
+
     /**
      * Parses the provided ICNS stream.
      * <p>
@@ -53,4 +105,75 @@ public interface IcnsParser {
     static void parse(InputStream input, Listener listener) throws IOException {
         IcnsIconsImpl.parse(input, listener);
     }
+
+    /**
+     * Parses the provided ICNS file, processing icons using the specified executor.
+     * <p>
+     * Entry headers are read on the calling thread, and icon data is handed over to the processor running on
+     * the executor, so parsing of the next icons overlaps with processing of the previous ones. The file is mapped
+     * into memory, and icon data is handed over as slices of the mapping, without copying it.
+     * The total size of icon data handed over but not yet processed is limited by {@code maxBytesInFlight};
+     * an icon larger than that is handed over once all previous icons have been processed. The method returns
+     * when all icons have been processed. If the processor fails, no more icons are handed over,
+     * and the failure is rethrown after processing of icons already handed over is finished.
+     *
+     * @param file             ICNS file
+     * @param executor         executor to run the processor on
+     * @param maxBytesInFlight maximum total size of icon data handed over but not yet processed
+     * @param processor        icon processor
+     * @throws IOException if an I/O error occurs, or if thrown by the processor
+     */
+    static void parse(Path file, Executor executor, long maxBytesInFlight, EntryProcessor processor) throws IOException {
+        parse(IcnsIconsImpl.mapAll(file), executor, maxBytesInFlight, processor);
+    }
+
+    /**
+     * Parses ICNS data contained in the provided buffer, processing icons using the specified executor.
+     * <p>
+     * Icon data is handed over to the processor as slices of the buffer, without copying it, so the content
+     * of the buffer must not be changed while the processor may use it. Position, limit and byte order
+     * of the buffer are not changed.
+     *
+     * @param buffer           buffer containing ICNS data
+     * @param executor         executor to run the processor on
+     * @param maxBytesInFlight maximum total size of icon data handed over but not yet processed
+     * @param processor        icon processor
+     * @throws IOException if the buffer does not contain valid ICNS data, or if thrown by the processor
+     * @see #parse(Path, Executor, long, EntryProcessor)
+     */
+    static void parse(ByteBuffer buffer, Executor executor, long maxBytesInFlight, EntryProcessor processor) throws IOException {
+        new IcnsPipeline(executor, maxBytesInFlight, processor).run(pipeline -> parse(buffer, pipeline));
+    }
+
+    /**
+     * Parses the provided ICNS stream, processing icons using the specified executor.
+     * <p>
+     * Icon data is read on the calling thread, and copied to a new buffer for each icon; the buffers are included in
+     * {@code maxBytesInFlight}. The stream will not be closed afterwards.
+     *
+     * @param input            ICNS input stream
+     * @param executor         executor to run the processor on
+     * @param maxBytesInFlight maximum total size of icon data handed over but not yet processed
+     * @param processor        icon processor
+     * @throws IOException if an I/O error occurs, or if thrown by the processor
+     * @see #parse(Path, Executor, long, EntryProcessor)
+     */
+    static void parse(InputStream input, Executor executor, long maxBytesInFlight, EntryProcessor processor) throws IOException {
+        new IcnsPipeline(executor, maxBytesInFlight, processor).run(pipeline -> parse(input, pipeline));
+    }
+
+    /**
+     * Parses ICNS data contained in the provided buffer.
+     * <p>
+     * The data starts at the current position of the buffer; position, limit and byte order of the buffer are not changed.
+     * Apart from a view of the buffer created once per call, parsing allocates no objects, so this method is suitable
+     * for indexing large numbers of icons, e.g. from memory-mapped files.
+     *
+     * @param buffer   buffer containing ICNS data
+     * @param listener event listener
+     * @throws IOException if the buffer does not contain valid ICNS data, or if thrown by the listener
+     */
+    static void parse(ByteBuffer buffer, BufferListener listener) throws IOException {
+        IcnsIconsImpl.parse(buffer, listener);
+    }
 }
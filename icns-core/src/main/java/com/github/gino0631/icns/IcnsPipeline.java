@@ -0,0 +1,193 @@
+package com.github.gino0631.icns;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Listener reading icon data on the parsing thread, and handing it over to an executor for processing.
+ * <p>
+ * Icon data of streams is copied to heap buffers, while icon data of buffers is handed over as slices, without copying.
+ * The total size of icon data handed over but not yet processed is limited by a budget. An entry larger than the budget
+ * is only handed over when nothing else is in flight. After a processor fails, no more entries are handed over.
+ * The TOC is not icon data, so it is skipped.
+ */
+final class IcnsPipeline implements IcnsParser.Listener, IcnsParser.BufferListener {
+    private static final int TOC_TYPE = IcnsIconsImpl.toInt(IcnsParser.TOC);
+
+    private final Executor executor;
+    private final long maxBytesInFlight;
+    private final IcnsParser.EntryProcessor processor;
+
+    // Guarded by this
+    private long bytesInFlight;
+    private int tasksInFlight;
+    private Throwable failure;
+
+    IcnsPipeline(Executor executor, long maxBytesInFlight, IcnsParser.EntryProcessor processor) {
+        if (maxBytesInFlight <= 0) {
+            throw new IllegalArgumentException("Byte budget must be positive");
+        }
+
+        this.executor = Objects.requireNonNull(executor);
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.processor = Objects.requireNonNull(processor);
+    }
+
+    @FunctionalInterface
+    interface Parser {
+        void parse(IcnsPipeline pipeline) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface DataReader {
+        ByteBuffer read() throws IOException;
+    }
+
+    /**
+     * Parses ICNS data, and waits until all entries are processed.
+     *
+     * @param parser parser to use
+     * @throws IOException if an I/O error occurs, or if thrown by the processor
+     */
+    void run(Parser parser) throws IOException {
+        try {
+            parser.parse(this);
+
+        } catch (IOException | RuntimeException | Error e) {
+            // Tasks already submitted are still running, and must not outlive the call
+            await(false);
+            throw e;
+        }
+
+        await(true);
+    }
+
+    @Override
+    public boolean onIcon(String osType, IcnsType type, int size, InputStream input) throws IOException {
+        if (osType.equals(IcnsParser.TOC)) {
+            return true;
+        }
+
+        // The stream is only valid during the call, so its data is copied
+        return submit(osType, type, size, () -> {
+            byte[] b = new byte[size];
+            new DataInputStream(input).readFully(b);
+
+            return ByteBuffer.wrap(b).asReadOnlyBuffer();
+        });
+    }
+
+    @Override
+    public boolean onIcon(int osType, int offset, int size, ByteBuffer data) throws IOException {
+        if (osType == TOC_TYPE) {
+            return true;
+        }
+
+        // Slices remain valid after the call, so data is not copied
+        return submit(IcnsIconsImpl.toStr(osType), IcnsType.of(osType), size, () -> data.slice().asReadOnlyBuffer());
+    }
+
+    private boolean submit(String osType, IcnsType type, int size, DataReader reader) throws IOException {
+        final long cost = Math.min(size, maxBytesInFlight);
+        if (!acquire(cost)) {
+            return false;
+        }
+
+        boolean submitted = false;
+
+        try {
+            final ByteBuffer data = reader.read();
+
+            executor.execute(() -> {
+                Throwable error = null;
+
+                try {
+                    processor.process(osType, type, data);
+
+                } catch (Throwable e) {
+                    error = e;
+
+                } finally {
+                    release(cost, error);
+                }
+            });
+            submitted = true;
+
+        } finally {
+            if (!submitted) {
+                release(cost, null);
+            }
+        }
+
+        return true;
+    }
+
+    private synchronized boolean acquire(long cost) throws IOException {
+        try {
+            while ((failure == null) && (bytesInFlight > 0) && (bytesInFlight + cost > maxBytesInFlight)) {
+                wait();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        if (failure != null) {
+            return false;
+        }
+
+        bytesInFlight += cost;
+        tasksInFlight++;
+
+        return true;
+    }
+
+    private synchronized void release(long cost, Throwable error) {
+        bytesInFlight -= cost;
+        tasksInFlight--;
+
+        if (error != null) {
+            if (failure == null) {
+                failure = error;
+
+            } else {
+                failure.addSuppressed(error);
+            }
+        }
+
+        notifyAll();
+    }
+
+    private synchronized void await(boolean rethrow) throws IOException {
+        try {
+            while (tasksInFlight > 0) {
+                wait();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        if (rethrow && (failure != null)) {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+
+            } else {
+                throw new IOException(failure);
+            }
+        }
+    }
+}
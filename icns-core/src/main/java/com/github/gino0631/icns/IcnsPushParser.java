@@ -0,0 +1,88 @@
+package com.github.gino0631.icns;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental ICNS format parser, which is fed with chunks of data as they become available.
+ * <p>
+ * Unlike {@link IcnsParser}, the parser never blocks waiting for data: it keeps its state between calls to
+ * {@link #feed(ByteBuffer)}, and passes icon data to the handler in pieces of the fed chunks, without buffering it.
+ * Instances are not thread-safe.
+ */
+public interface IcnsPushParser {
+    /**
+     * Handler of parsing events.
+     * <p>
+     * For every entry, including the TOC, {@link #onEntryStart(String, IcnsType, int)} is called first,
+     * followed by zero or more calls of {@link #onEntryData(ByteBuffer)}, and then {@link #onEntryEnd()}.
+     */
+    interface Handler {
+        /**
+         * Handler method called when the header of an entry has been parsed.
+         *
+         * @param osType OSType identifier of the icon type
+         * @param type   type of the icon, or {@code null} if it could not be determined
+         * @param size   size of the icon
+         * @throws IOException if an I/O error occurs
+         */
+        void onEntryStart(String osType, IcnsType type, int size) throws IOException;
+
+        /**
+         * Handler method called with a piece of icon data.
+         * <p>
+         * The buffer is a view of a fed chunk, with its position and limit set to the bounds of the piece,
+         * so it is only valid during the call; copy it to retain the data. The handler may change position and limit of the buffer.
+         *
+         * @param data buffer containing a piece of icon data between its position and limit
+         * @throws IOException if an I/O error occurs
+         */
+        default void onEntryData(ByteBuffer data) throws IOException {
+        }
+
+        /**
+         * Handler method called when all data of an entry has been passed.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        default void onEntryEnd() throws IOException {
+        }
+    }
+
+    /**
+     * Parses the next chunk of ICNS data.
+     * <p>
+     * The chunk is consumed up to the end of ICNS data, so its position is left at the end of the chunk,
+     * or right after ICNS data if the chunk contains anything following it. Events are delivered before this method returns.
+     * After an exception, the parser must not be used anymore.
+     *
+     * @param chunk buffer containing the next chunk of data between its position and limit
+     * @throws IOException if the data is not valid ICNS data, or if thrown by the handler
+     */
+    void feed(ByteBuffer chunk) throws IOException;
+
+    /**
+     * Checks if all ICNS data has been parsed.
+     *
+     * @return {@code true} if the end of ICNS data has been reached
+     */
+    boolean isDone();
+
+    /**
+     * Signals that no more data will be fed.
+     *
+     * @throws EOFException if ICNS data is incomplete
+     */
+    void finish() throws EOFException;
+
+    /**
+     * Gets a new instance of {@code IcnsPushParser}.
+     *
+     * @param handler event handler
+     * @return a new instance of the parser
+     */
+    static IcnsPushParser newInstance(Handler handler) {
+        return new IcnsPushParserImpl(handler);
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.gino0631.icns;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.Objects;
+
+import static com.github.gino0631.icns.IcnsIconsImpl.HEADER_SIZE;
+
+final class IcnsPushParserImpl implements IcnsPushParser {
+    private static final int MAGIC = IcnsIconsImpl.toInt("icns");
+
+    private enum State {
+        FILE_HEADER, ENTRY_HEADER, ENTRY_DATA, DONE
+    }
+
+    private final Handler handler;
+    // Headers may be split between chunks, so they are collected here
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private State state = State.FILE_HEADER;
+    private long position;
+    private int fileSize;
+    private int remaining;
+
+    IcnsPushParserImpl(Handler handler) {
+        this.handler = Objects.requireNonNull(handler);
+    }
+
+    @Override
+    public void feed(ByteBuffer chunk) throws IOException {
+        while (chunk.hasRemaining() && (state != State.DONE)) {
+            switch (state) {
+                case FILE_HEADER:
+                    if (fillHeader(chunk)) {
+                        if (header.getInt(0) != MAGIC) {
+                            throw new IOException("Not an ICNS stream");
+                        }
+
+                        fileSize = header.getInt(4);
+                        if (fileSize < HEADER_SIZE) {
+                            throw new IOException(MessageFormat.format("Illegal file size ({0})", fileSize));
+                        }
+
+                        nextEntry();
+                    }
+                    break;
+
+                case ENTRY_HEADER:
+                    if (fillHeader(chunk)) {
+                        int osType = header.getInt(0);
+                        int iconSize = header.getInt(4) - HEADER_SIZE;
+                        if ((iconSize < 0) || (iconSize > fileSize - position)) {
+                            throw new IOException(MessageFormat.format("Illegal icon size ({0})", iconSize));
+                        }
+
+                        remaining = iconSize;
+                        handler.onEntryStart(IcnsIconsImpl.toStr(osType), IcnsType.of(osType), iconSize);
+                        state = State.ENTRY_DATA;
+                        endEntryIfComplete();
+                    }
+                    break;
+
+                case ENTRY_DATA:
+                    int n = Math.min(remaining, chunk.remaining());
+                    int pos = chunk.position();
+
+                    ByteBuffer data = chunk.duplicate();
+                    ((Buffer) data).limit(pos + n);
+                    handler.onEntryData(data);
+
+                    ((Buffer) chunk).position(pos + n);
+                    position += n;
+                    remaining -= n;
+                    endEntryIfComplete();
+                    break;
+
+                default:
+                    throw new IllegalStateException(state.name());
+            }
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    @Override
+    public void finish() throws EOFException {
+        if (state != State.DONE) {
+            throw new EOFException(MessageFormat.format("Stream should contain at least {0} bytes, but it does not", Math.max(fileSize, HEADER_SIZE)));
+        }
+    }
+
+    /**
+     * Collects header bytes from the chunk.
+     *
+     * @return {@code true} if the header is complete
+     */
+    private boolean fillHeader(ByteBuffer chunk) {
+        while (header.hasRemaining() && chunk.hasRemaining()) {
+            header.put(chunk.get());
+            position++;
+        }
+
+        return !header.hasRemaining();
+    }
+
+    private void endEntryIfComplete() throws IOException {
+        if (remaining == 0) {
+            handler.onEntryEnd();
+            nextEntry();
+        }
+    }
+
+    private void nextEntry() {
+        ((Buffer) header).clear();
+        state = (position < fileSize) ? State.ENTRY_HEADER : State.DONE;
+    }
+}
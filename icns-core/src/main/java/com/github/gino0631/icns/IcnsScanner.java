@@ -0,0 +1,415 @@
+package com.github.gino0631.icns;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Scanner of directory trees containing ICNS files.
+ * <p>
+ * Directories are walked in parallel by a fork-join pool, and only entry headers (or the TOC) of each file are read,
+ * so scanning does not depend on the size of icon data. Results are passed to a consumer as soon as each file is scanned.
+ */
+public final class IcnsScanner {
+    private static final String EXTENSION = ".icns";
+    private static final int BATCH_SIZE = 64;
+
+    private IcnsScanner() {
+    }
+
+    /**
+     * Information about an entry of a scanned file.
+     */
+    public static final class EntryInfo {
+        private final String osType;
+        private final IcnsType type;
+        private final long offset;
+        private final int size;
+
+        EntryInfo(String osType, IcnsType type, long offset, int size) {
+            this.osType = osType;
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * Gets OSType identifier of the icon type.
+         *
+         * @return a string corresponding to a four-byte type identifier
+         */
+        public String getOsType() {
+            return osType;
+        }
+
+        /**
+         * Gets type of the icon.
+         *
+         * @return type of the icon, or {@code null} if it could not be determined
+         */
+        public IcnsType getType() {
+            return type;
+        }
+
+        /**
+         * Gets offset of icon data in the file.
+         *
+         * @return offset in bytes
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Gets size of the icon.
+         *
+         * @return size of icon data in bytes
+         */
+        public int getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Result of scanning a file.
+     */
+    public static final class FileResult {
+        private final Path file;
+        private final long size;
+        private final long lastModified;
+        private final List<EntryInfo> entries;
+        private final IOException error;
+
+        FileResult(Path file, long size, long lastModified, List<EntryInfo> entries, IOException error) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.entries = Collections.unmodifiableList(entries);
+            this.error = error;
+        }
+
+        /**
+         * Gets the scanned file.
+         *
+         * @return path of the file
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Gets size of the file at the time it was scanned.
+         *
+         * @return size in bytes, or {@code -1} if unknown
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets last modification time of the file at the time it was scanned.
+         *
+         * @return time in milliseconds since the epoch, or {@code -1} if unknown
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Gets entries of the file.
+         *
+         * @return unmodifiable list of entries, in the order of the file; empty if the file could not be scanned
+         */
+        public List<EntryInfo> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Gets the error which occurred while scanning the file.
+         *
+         * @return the error, or {@code null} if the file has been scanned successfully
+         */
+        public IOException getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Report formats.
+     */
+    public enum Format {
+        /**
+         * Comma-separated values, with a header line, and a line per entry; a file which could not be scanned
+         * is reported on a single line with an error message.
+         */
+        CSV {
+            @Override
+            public void writeHeader(Appendable out) throws IOException {
+                out.append("file,osType,type,width,height,offset,size,error\n");
+            }
+
+            @Override
+            public void write(FileResult result, Appendable out) throws IOException {
+                String file = csv(result.getFile().toString());
+
+                if (result.getError() != null) {
+                    out.append(file).append(",,,,,,,").append(csv(String.valueOf(result.getError()))).append('\n');
+                    return;
+                }
+
+                for (EntryInfo e : result.getEntries()) {
+                    IcnsType type = e.getType();
+
+                    out.append(file).append(',')
+                            .append(csv(e.getOsType())).append(',')
+                            .append((type != null) ? type.name() : "").append(',')
+                            .append((type != null) ? String.valueOf(type.getWidth()) : "").append(',')
+                            .append((type != null) ? String.valueOf(type.getHeight()) : "").append(',')
+                            .append(String.valueOf(e.getOffset())).append(',')
+                            .append(String.valueOf(e.getSize())).append(",\n");
+                }
+            }
+        },
+
+        /**
+         * JSON lines, with an object per file.
+         */
+        JSON {
+            @Override
+            public void writeHeader(Appendable out) {
+            }
+
+            @Override
+            public void write(FileResult result, Appendable out) throws IOException {
+                out.append("{\"file\":").append(json(result.getFile().toString()));
+
+                if (result.getError() != null) {
+                    out.append(",\"error\":").append(json(String.valueOf(result.getError()))).append("}\n");
+                    return;
+                }
+
+                out.append(",\"size\":").append(String.valueOf(result.getSize()))
+                        .append(",\"lastModified\":").append(String.valueOf(result.getLastModified()))
+                        .append(",\"entries\":[");
+
+                String separator = "";
+                for (EntryInfo e : result.getEntries()) {
+                    IcnsType type = e.getType();
+
+                    out.append(separator).append("{\"osType\":").append(json(e.getOsType()));
+                    if (type != null) {
+                        out.append(",\"type\":\"").append(type.name())
+                                .append("\",\"width\":").append(String.valueOf(type.getWidth()))
+                                .append(",\"height\":").append(String.valueOf(type.getHeight()));
+                    }
+                    out.append(",\"offset\":").append(String.valueOf(e.getOffset()))
+                            .append(",\"size\":").append(String.valueOf(e.getSize())).append('}');
+                    separator = ",";
+                }
+
+                out.append("]}\n");
+            }
+        };
+
+        /**
+         * Writes the beginning of a report.
+         *
+         * @param out output to write to
+         * @throws IOException if an I/O error occurs
+         */
+        public abstract void writeHeader(Appendable out) throws IOException;
+
+        /**
+         * Writes the result of scanning a file.
+         *
+         * @param result result to write
+         * @param out    output to write to
+         * @throws IOException if an I/O error occurs
+         */
+        public abstract void write(FileResult result, Appendable out) throws IOException;
+    }
+
+    /**
+     * Scans a single file.
+     *
+     * @param file ICNS file
+     * @return result of scanning; if the file could not be read, or is not a valid ICNS file, the result contains the error
+     */
+    public static FileResult scan(Path file) {
+        long size = -1;
+        long lastModified = -1;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+            size = channel.size();
+
+            // Only entry headers (or the TOC) are read
+            List<EntryInfo> result = IcnsIconsImpl.index(channel, (osType, type, entrySize, offs) -> new EntryInfo(osType, type, offs, entrySize));
+
+            return new FileResult(file, size, lastModified, result, null);
+
+        } catch (IOException e) {
+            return new FileResult(file, size, lastModified, Collections.emptyList(), e);
+
+        } catch (RuntimeException e) {
+            return new FileResult(file, size, lastModified, Collections.emptyList(), new IOException(e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Scans ICNS files in a directory tree.
+     * <p>
+     * Files with {@code .icns} extension (in any case) are scanned; symbolic links are not followed.
+     * If the root is a file, only that file is scanned.
+     * The consumer is called for every file, in no particular order, but never concurrently.
+     * A directory which could not be listed is reported as a result with an error.
+     *
+     * @param root        root of the tree
+     * @param parallelism number of threads to use
+     * @param consumer    consumer of results
+     */
+    public static void scan(Path root, int parallelism, Consumer<? super FileResult> consumer) {
+        scan(root, parallelism, IcnsScanner::scan, consumer);
+    }
+
+    /**
+     * Scans ICNS files in a directory tree, using the specified function to scan each file.
+     *
+     * @param root        root of the tree
+     * @param parallelism number of threads to use
+     * @param fileScanner function scanning a file
+     * @param consumer    consumer of results
+     * @see #scan(Path, int, Consumer)
+     */
+    static void scan(Path root, int parallelism, Function<Path, FileResult> fileScanner, Consumer<? super FileResult> consumer) {
+        Consumer<FileResult> serialized = result -> {
+            synchronized (consumer) {
+                consumer.accept(result);
+            }
+        };
+
+        if (Files.isRegularFile(root)) {
+            serialized.accept(fileScanner.apply(root));
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            pool.invoke(new DirectoryTask(root, fileScanner, serialized));
+
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Function<Path, FileResult> fileScanner;
+        private final Consumer<FileResult> consumer;
+
+        DirectoryTask(Path dir, Function<Path, FileResult> fileScanner, Consumer<FileResult> consumer) {
+            this.dir = dir;
+            this.fileScanner = fileScanner;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path p : stream) {
+                    BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+                    if (attrs.isDirectory()) {
+                        tasks.add(new DirectoryTask(p, fileScanner, consumer));
+
+                    } else if (attrs.isRegularFile() && p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(EXTENSION)) {
+                        files.add(p);
+
+                        // Large directories are split, so that their files are scanned in parallel too
+                        if (files.size() == BATCH_SIZE) {
+                            tasks.add(new FilesTask(files, fileScanner, consumer));
+                            files = new ArrayList<>();
+                        }
+                    }
+                }
+
+            } catch (IOException e) {
+                consumer.accept(new FileResult(dir, -1, -1, Collections.emptyList(), e));
+            }
+
+            if (!files.isEmpty()) {
+                tasks.add(new FilesTask(files, fileScanner, consumer));
+            }
+
+            invokeAll(tasks);
+        }
+    }
+
+    private static final class FilesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final Function<Path, FileResult> fileScanner;
+        private final Consumer<FileResult> consumer;
+
+        FilesTask(List<Path> files, Function<Path, FileResult> fileScanner, Consumer<FileResult> consumer) {
+            this.files = files;
+            this.fileScanner = fileScanner;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path file : files) {
+                consumer.accept(fileScanner.apply(file));
+            }
+        }
+    }
+
+    private static String csv(String s) {
+        if ((s.indexOf(',') < 0) && (s.indexOf('"') < 0) && (s.indexOf('\n') < 0) && (s.indexOf('\r') < 0)) {
+            return s;
+        }
+
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    private static String json(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\').append(c);
+
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.gino0631.icns;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command line interface of {@link IcnsScanner}.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp icns-core.jar:clove-io.jar com.github.gino0631.icns.IcnsScannerMain [options] directory...
+ *   -f format       report format: csv or json (default csv)
+ *   -p parallelism  number of threads (default number of processors)
+ *   -o file         file to write the report to (default standard output)
+ * </pre>
+ */
+final class IcnsScannerMain {
+    private static final String USAGE = "Usage: IcnsScannerMain [-f csv|json] [-p parallelism] [-o file] directory...";
+
+    private IcnsScannerMain() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int status = run(args, System.out, System.err);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs the scanner with the specified arguments.
+     *
+     * @param args arguments
+     * @param out  stream to write the report to, unless a file is specified; it is flushed, but not closed
+     * @param err  stream to write errors to
+     * @return exit status: {@code 0} on success, {@code 2} if the arguments are invalid
+     * @throws IOException if an I/O error occurs
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) throws IOException {
+        IcnsScanner.Format format = IcnsScanner.Format.CSV;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        Path output = null;
+        List<Path> roots = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-f":
+                        format = IcnsScanner.Format.valueOf(value(args, ++i).toUpperCase(Locale.ROOT));
+                        break;
+
+                    case "-p":
+                        parallelism = Integer.parseInt(value(args, ++i));
+                        if (parallelism <= 0) {
+                            throw new IllegalArgumentException(MessageFormat.format("Invalid parallelism: {0}", parallelism));
+                        }
+                        break;
+
+                    case "-o":
+                        output = Paths.get(value(args, ++i));
+                        break;
+
+                    default:
+                        if (args[i].startsWith("-")) {
+                            throw new IllegalArgumentException(MessageFormat.format("Unexpected argument: {0}", args[i]));
+                        }
+                        roots.add(Paths.get(args[i]));
+                }
+            }
+
+            if (roots.isEmpty()) {
+                throw new IllegalArgumentException("No directory specified");
+            }
+
+        } catch (IllegalArgumentException e) {
+            // Including NumberFormatException and InvalidPathException
+            err.println(e.getMessage());
+            err.println(USAGE);
+
+            return 2;
+        }
+
+        if (output != null) {
+            try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+                write(format, parallelism, roots, writer);
+            }
+
+        } else {
+            // The stream is not closed, so that it remains usable by the caller
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            write(format, parallelism, roots, writer);
+            writer.flush();
+        }
+
+        return 0;
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(MessageFormat.format("Missing value of {0}", args[i - 1]));
+        }
+
+        return args[i];
+    }
+
+    private static void write(IcnsScanner.Format format, int parallelism, List<Path> roots, Writer out) throws IOException {
+        format.writeHeader(out);
+
+        try {
+            for (Path root : roots) {
+                IcnsScanner.scan(root, parallelism, result -> {
+                    try {
+                        format.write(result, out);
+
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
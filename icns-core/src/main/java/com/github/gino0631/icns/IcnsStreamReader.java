@@ -0,0 +1,207 @@
+package com.github.gino0631.icns;
+
+import com.github.gino0631.common.io.IoStreams;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+
+/**
+ * Buffered reader of ICNS streams.
+ * <p>
+ * The reader never reads past the end set by {@link #setEnd(long)}, so the underlying stream is left positioned
+ * right after ICNS data once it has been read completely.
+ */
+final class IcnsStreamReader {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream input;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int bufPos;
+    private int bufLimit;
+    private long position;
+    private long end;
+
+    IcnsStreamReader(InputStream input, long end) {
+        this.input = input;
+        this.end = end;
+    }
+
+    /**
+     * Gets number of bytes consumed so far.
+     *
+     * @return position in the stream
+     */
+    long position() {
+        return position;
+    }
+
+    void setEnd(long end) {
+        this.end = end;
+    }
+
+    /**
+     * Reads a big-endian integer.
+     *
+     * @return the integer
+     * @throws EOFException if the end of data is reached
+     * @throws IOException  if an I/O error occurs
+     */
+    int readInt() throws IOException {
+        ensure(4);
+
+        int i = bufPos;
+        bufPos += 4;
+        position += 4;
+
+        return ((buf[i] & 0xFF) << 24) | ((buf[i + 1] & 0xFF) << 16) | ((buf[i + 2] & 0xFF) << 8) | (buf[i + 3] & 0xFF);
+    }
+
+    /**
+     * Returns a stream of the next {@code size} bytes.
+     * <p>
+     * The stream must be consumed, or {@link EntryStream#skipRemaining() skipped}, before reading anything else.
+     *
+     * @param size number of bytes
+     * @return entry stream
+     */
+    EntryStream newEntryStream(long size) {
+        return new EntryStream(size);
+    }
+
+    private void ensure(int n) throws IOException {
+        if (bufLimit - bufPos >= n) {
+            return;
+        }
+
+        // Move what is left to the beginning of the buffer, and fill the rest
+        System.arraycopy(buf, bufPos, buf, 0, bufLimit - bufPos);
+        bufLimit -= bufPos;
+        bufPos = 0;
+
+        while (bufLimit < n) {
+            int len = fillLength(buf.length - bufLimit);
+            int count = (len > 0) ? input.read(buf, bufLimit, len) : -1;
+            if (count < 0) {
+                throw new EOFException(MessageFormat.format("Stream should contain at least {0} bytes, but it does not", position + n));
+            }
+
+            bufLimit += count;
+        }
+    }
+
+    /**
+     * Limits a read from the underlying stream, so that it does not go past the end.
+     */
+    private int fillLength(int len) {
+        long available = end - position - (bufLimit - bufPos);
+
+        return (int) Math.max(0, Math.min(len, available));
+    }
+
+    /**
+     * A stream of a part of ICNS data, usually icon data.
+     * <p>
+     * Closing the stream has no effect.
+     */
+    final class EntryStream extends InputStream {
+        private long remaining;
+
+        private EntryStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            ensure(1);
+            remaining--;
+            position++;
+
+            return buf[bufPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            len = (int) Math.min(len, remaining);
+            int count;
+
+            if (bufPos < bufLimit) {
+                count = Math.min(len, bufLimit - bufPos);
+                System.arraycopy(buf, bufPos, b, off, count);
+                bufPos += count;
+
+            } else if (len >= buf.length) {
+                // Large reads bypass the buffer
+                count = input.read(b, off, fillLength(len));
+
+            } else {
+                ensure(1);
+                count = Math.min(len, bufLimit - bufPos);
+                System.arraycopy(buf, bufPos, b, off, count);
+                bufPos += count;
+            }
+
+            if (count < 0) {
+                throw new EOFException(MessageFormat.format("Stream should contain at least {0} bytes, but it does not", position + remaining));
+            }
+
+            remaining -= count;
+            position += count;
+
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            n = Math.min(n, remaining);
+            if (n <= 0) {
+                return 0;
+            }
+
+            long skipped = Math.min(n, bufLimit - bufPos);
+            bufPos += (int) skipped;
+
+            if (skipped < n) {
+                skipped += IoStreams.skip(input, n - skipped);
+            }
+
+            remaining -= skipped;
+            position += skipped;
+
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, bufLimit - bufPos);
+        }
+
+        /**
+         * Skips unread bytes of the stream.
+         *
+         * @throws EOFException if the end of the underlying stream is reached
+         * @throws IOException  if an I/O error occurs
+         */
+        void skipRemaining() throws IOException {
+            while (remaining > 0) {
+                // Not all streams support skipping, so fall back to reading
+                if ((skip(remaining) == 0) && (read() < 0)) {
+                    throw new EOFException(MessageFormat.format("Stream should contain at least {0} bytes, but it does not", position + remaining));
+                }
+            }
+        }
+    }
+}
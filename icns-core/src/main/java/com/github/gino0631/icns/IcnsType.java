@@ -43,6 +43,14 @@ public enum IcnsType {
     ICNS_128x128_2X_JPEG_PNG_IMAGE("ic13", 256, 256, 0, false, true),
     ICNS_256x256_2X_JPEG_PNG_IMAGE("ic14", 512, 512, 0, false, true);
 
+    private static final IntMap<IcnsType> TYPES = new IntMap<>(values().length);
+
+    static {
+        for (IcnsType i : values()) {
+            TYPES.putIfAbsent(i.type, i);
+        }
+    }
+
     private final String osType;
     private final int type;
     private final int width;
@@ -65,6 +73,15 @@ public enum IcnsType {
         return osType;
     }
 
+    /**
+     * Gets OSType identifier of the icon type as an integer.
+     *
+     * @return four-byte type identifier, in big-endian order
+     */
+    public int getOsTypeCode() {
+        return type;
+    }
+
     public int getWidth() {
         return width;
     }
@@ -85,17 +102,26 @@ public enum IcnsType {
         return hasRetinaDisplay;
     }
 
+    /**
+     * Gets icon type by its OSType identifier.
+     *
+     * @param type a string corresponding to a four-byte type identifier
+     * @return icon type, or {@code null} if the identifier is not known
+     */
     public static IcnsType of(String type) {
         return of(IcnsIconsImpl.toInt(type));
     }
 
+    /**
+     * Gets icon type by its OSType identifier.
+     * <p>
+     * This is a constant-time lookup, which does not allocate; prefer it to {@link #of(String)}
+     * when the identifier is available as an integer, e.g. when parsing.
+     *
+     * @param type four-byte type identifier, in big-endian order
+     * @return icon type, or {@code null} if the identifier is not known
+     */
     public static IcnsType of(int type) {
-        for (IcnsType i : IcnsType.values()) {
-            if (i.type == type) {
-                return i;
-            }
-        }
-
-        return null;
+        return TYPES.get(type);
     }
 }
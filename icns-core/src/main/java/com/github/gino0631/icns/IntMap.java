@@ -0,0 +1,76 @@
+package com.github.gino0631.icns;
+
+/**
+ * A minimal open-addressing map with primitive {@code int} keys.
+ * <p>
+ * The map is meant to be filled once and then only read; lookups do not allocate.
+ *
+ * @param <V> type of values
+ */
+final class IntMap<V> {
+    private final int[] keys;
+    private final Object[] values;
+    private final int mask;
+    private int size;
+
+    IntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 2) * 2 - 1) << 1;
+
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Associates a value with the specified key, unless the key already has a value.
+     *
+     * @param key   key
+     * @param value value, must not be {@code null}
+     * @return {@code true} if the value was added
+     */
+    boolean putIfAbsent(int key, V value) {
+        if (size >= (keys.length >>> 1)) {
+            throw new IllegalStateException("The map is full");
+        }
+
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            if (values[i] == null) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+
+                return true;
+
+            } else if (keys[i] == key) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Gets the value associated with the specified key.
+     *
+     * @param key key
+     * @return the value, or {@code null} if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        for (int i = index(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int index(int key) {
+        int h = key * 0x9E3779B9;
+
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
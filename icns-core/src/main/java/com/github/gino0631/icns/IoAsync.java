@@ -0,0 +1,164 @@
+package com.github.gino0631.icns;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.text.MessageFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+final class IoAsync {
+    private IoAsync() {
+    }
+
+    /**
+     * Reads bytes from the specified position of a channel.
+     *
+     * @param channel  channel to read from
+     * @param dst      buffer to read into
+     * @param position position to read from
+     * @return a future completed with the number of bytes read, or {@code -1} if the position is at or past the end of the channel
+     */
+    static CompletableFuture<Integer> read(AsynchronousFileChannel channel, ByteBuffer dst, long position) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        try {
+            channel.read(dst, position, null, handler(future));
+
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Fills the remaining part of a buffer with bytes read from the specified position of a channel.
+     *
+     * @param channel  channel to read from
+     * @param dst      buffer to read into
+     * @param position position to read from
+     * @return a future completed when the buffer is filled, or completed exceptionally with {@link EOFException}
+     * if the end of the channel is reached before that
+     */
+    static CompletableFuture<Void> readFully(AsynchronousFileChannel channel, ByteBuffer dst, long position) {
+        if (!dst.hasRemaining()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return read(channel, dst, position).thenCompose(n -> (n < 0)
+                ? failed(new EOFException(MessageFormat.format("Channel should contain at least {0} bytes, but it does not", position + dst.remaining())))
+                : readFully(channel, dst, position + n));
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to the specified position of a channel.
+     *
+     * @param channel  channel to write to
+     * @param src      buffer to write
+     * @param position position to write to
+     * @return a future completed when the buffer has been written
+     */
+    static CompletableFuture<Void> writeFully(AsynchronousFileChannel channel, ByteBuffer src, long position) {
+        if (!src.hasRemaining()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        try {
+            channel.write(src, position, null, handler(future));
+
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future.thenCompose(n -> writeFully(channel, src, position + n));
+    }
+
+    /**
+     * Waits for a channel operation to complete.
+     *
+     * @param future future of the operation
+     * @param <T>    type of the result
+     * @return result of the operation
+     * @throws IOException if the operation failed, or the wait was interrupted
+     */
+    static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Closes a resource once a future completes, successfully or not.
+     *
+     * @param future    future to wait for
+     * @param closeable resource to close
+     * @param <T>       type of the result
+     * @return a future completed with the result of the future once the resource is closed,
+     * or completed exceptionally if the future fails, or closing the resource fails
+     */
+    static <T> CompletableFuture<T> closing(CompletableFuture<T> future, Closeable closeable) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        future.whenComplete((value, e) -> {
+            Throwable failure = e;
+
+            try {
+                closeable.close();
+
+            } catch (IOException x) {
+                if (failure == null) {
+                    failure = x;
+
+                } else {
+                    failure.addSuppressed(x);
+                }
+            }
+
+            if (failure != null) {
+                result.completeExceptionally(failure);
+
+            } else {
+                result.complete(value);
+            }
+        });
+
+        return result;
+    }
+
+    static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+
+        return future;
+    }
+
+    private static <T> CompletionHandler<T, Void> handler(CompletableFuture<T> future) {
+        return new CompletionHandler<T, Void>() {
+            @Override
+            public void completed(T result, Void attachment) {
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                future.completeExceptionally(e);
+            }
+        };
+    }
+}
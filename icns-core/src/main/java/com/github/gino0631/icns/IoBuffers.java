@@ -0,0 +1,62 @@
+package com.github.gino0631.icns;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+final class IoBuffers {
+    private IoBuffers() {
+    }
+
+    /**
+     * Returns an input stream reading the remaining bytes of the specified buffer.
+     * <p>
+     * The stream works on a duplicate of the buffer, so the position of the buffer itself is not changed.
+     *
+     * @param buffer buffer to read from
+     * @return input stream
+     */
+    static InputStream newInputStream(ByteBuffer buffer) {
+        final ByteBuffer buf = buffer.duplicate();
+
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buf.hasRemaining() ? (buf.get() & 0xFF) : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+
+                if (!buf.hasRemaining()) {
+                    return -1;
+                }
+
+                len = Math.min(len, buf.remaining());
+                buf.get(b, off, len);
+
+                return len;
+            }
+
+            @Override
+            public long skip(long n) {
+                if (n <= 0) {
+                    return 0;
+                }
+
+                int skipped = (int) Math.min(n, buf.remaining());
+                ((Buffer) buf).position(buf.position() + skipped);
+
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return buf.remaining();
+            }
+        };
+    }
+}
@@ -0,0 +1,229 @@
+package com.github.gino0631.icns;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.MessageFormat;
+
+final class IoChannels {
+    private static final int BUFFER_SIZE = 8192;
+
+    private IoChannels() {
+    }
+
+    /**
+     * Reads bytes from the specified position of a channel, without changing its position.
+     * <p>
+     * File channels are read using positional reads, which may proceed concurrently.
+     * Other channels are locked for the duration of the read.
+     *
+     * @param channel  channel to read from
+     * @param dst      buffer to read into
+     * @param position position to read from
+     * @return number of bytes read, possibly zero, or {@code -1} if the position is at or past the end of the channel
+     * @throws IOException if an I/O error occurs
+     */
+    static int read(SeekableByteChannel channel, ByteBuffer dst, long position) throws IOException {
+        if (channel instanceof FileChannel) {
+            return ((FileChannel) channel).read(dst, position);
+
+        } else {
+            synchronized (channel) {
+                long pos = channel.position();
+
+                try {
+                    return channel.position(position).read(dst);
+
+                } finally {
+                    channel.position(pos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the remaining part of a buffer with bytes read from the specified position of a channel.
+     *
+     * @param channel  channel to read from
+     * @param dst      buffer to read into
+     * @param position position to read from
+     * @throws EOFException if the end of the channel is reached before the buffer is filled
+     * @throws IOException  if an I/O error occurs
+     */
+    static void readFully(SeekableByteChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = read(channel, dst, position);
+            if (n < 0) {
+                throw new EOFException(MessageFormat.format("Channel should contain at least {0} bytes, but it does not", position + dst.remaining()));
+            }
+
+            position += n;
+        }
+    }
+
+    /**
+     * Returns an input stream reading a region of a channel.
+     * <p>
+     * The stream uses {@link #read(SeekableByteChannel, ByteBuffer, long)}, so several streams may share the same channel.
+     * Closing the stream does not close the channel.
+     *
+     * @param channel  channel to read from
+     * @param position start of the region
+     * @param size     size of the region
+     * @return input stream
+     */
+    static InputStream newInputStream(SeekableByteChannel channel, long position, long size) {
+        return newInputStream((dst, pos) -> read(channel, dst, pos), position, size);
+    }
+
+    /**
+     * Returns an input stream reading a region of a source that supports positional reads.
+     *
+     * @param source   source to read from
+     * @param position start of the region
+     * @param size     size of the region
+     * @return input stream
+     */
+    static InputStream newInputStream(PositionalReader source, long position, long size) {
+        return new InputStream() {
+            private final long end = position + size;
+            private long pos = position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+
+                return (read(b, 0, 1) > 0) ? (b[0] & 0xFF) : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+
+                if (pos >= end) {
+                    return -1;
+                }
+
+                len = (int) Math.min(len, end - pos);
+                int n = source.read(ByteBuffer.wrap(b, off, len), pos);
+                if (n < 0) {
+                    throw new EOFException(MessageFormat.format("Channel should contain at least {0} bytes, but it does not", end));
+                }
+                pos += n;
+
+                return n;
+            }
+
+            @Override
+            public long skip(long n) {
+                if (n <= 0) {
+                    return 0;
+                }
+
+                long skipped = Math.min(n, end - pos);
+                pos += skipped;
+
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(end - pos, Integer.MAX_VALUE);
+            }
+        };
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to a channel.
+     *
+     * @param channel channel to write to
+     * @param src     buffer to write
+     * @throws IOException if an I/O error occurs
+     */
+    static void writeFully(WritableByteChannel channel, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to the specified position of a file channel, without changing its position.
+     *
+     * @param channel  channel to write to
+     * @param src      buffer to write
+     * @param position position to write to
+     * @throws IOException if an I/O error occurs
+     */
+    static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    /**
+     * Transfers a region of a file channel to the target channel.
+     * <p>
+     * Uses {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which allows the operating system
+     * to move the data without copying it through the Java heap.
+     *
+     * @param src      channel to transfer from
+     * @param position start of the region
+     * @param count    size of the region
+     * @param target   channel to transfer to
+     * @throws EOFException if the end of the source channel is reached before the region is transferred
+     * @throws IOException  if an I/O error occurs
+     */
+    static void transferFully(FileChannel src, long position, long count, WritableByteChannel target) throws IOException {
+        while (count > 0) {
+            long n = src.transferTo(position, count, target);
+            if ((n == 0) && (position >= src.size())) {
+                throw new EOFException(MessageFormat.format("Channel should contain at least {0} bytes, but it does not", position + count));
+            }
+
+            position += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Copies all bytes from an input stream to a channel.
+     *
+     * @param input  stream to read from
+     * @param target channel to write to
+     * @return number of bytes copied
+     * @throws IOException if an I/O error occurs
+     */
+    static long copy(InputStream input, WritableByteChannel target) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long count = 0;
+
+        for (int n; (n = input.read(buf)) >= 0; ) {
+            writeFully(target, ByteBuffer.wrap(buf, 0, n));
+            count += n;
+        }
+
+        return count;
+    }
+
+    /**
+     * A source of bytes that can be read from any position.
+     */
+    @FunctionalInterface
+    interface PositionalReader {
+        /**
+         * Reads bytes from the specified position.
+         *
+         * @param dst      buffer to read into
+         * @param position position to read from
+         * @return number of bytes read, possibly zero, or {@code -1} if the position is at or past the end of the source
+         * @throws IOException if an I/O error occurs
+         */
+        int read(ByteBuffer dst, long position) throws IOException;
+    }
+}
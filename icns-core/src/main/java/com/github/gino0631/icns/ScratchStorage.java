@@ -0,0 +1,494 @@
+package com.github.gino0631.icns;
+
+import com.github.gino0631.common.io.IoFiles;
+import com.github.gino0631.common.io.IoStreams;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scratch storage of a builder.
+ * <p>
+ * Data is stored in pooled heap buffers of {@link #CHUNK_SIZE} bytes, until its total size would exceed the spill threshold;
+ * then it is moved to a temporary file, which is used for all further data.
+ * <p>
+ * Space is allocated by {@link #reserve(long) reserving} regions, which is a short exclusive operation (unless it spills),
+ * and then filled by positional writes. Writes to different regions, and reads, may proceed concurrently.
+ */
+final class ScratchStorage implements Closeable {
+    private static final Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass().getName());
+
+    static final int CHUNK_SIZE = 65536;
+    private static final int MAX_POOLED_CHUNKS = 256;
+    private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final long spillThreshold;
+    // Positional reads and writes share the lock; changes of the chunk list, the size, or the storage mode are exclusive
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private Path file;
+    private FileChannel channel;
+    private long size;
+    private boolean closed;
+
+    /**
+     * Creates a new storage.
+     *
+     * @param spillThreshold size of data kept in memory; {@code 0} to always use a temporary file,
+     *                       {@link Long#MAX_VALUE} to never use it
+     */
+    ScratchStorage(long spillThreshold) {
+        if (spillThreshold < 0) {
+            throw new IllegalArgumentException(MessageFormat.format("Invalid spill threshold ({0})", spillThreshold));
+        }
+
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * Gets size of the stored data, including reserved regions.
+     *
+     * @return number of bytes
+     */
+    long size() {
+        Lock l = lock.readLock();
+        l.lock();
+
+        try {
+            return size;
+
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Checks whether the data has been moved to a temporary file.
+     *
+     * @return {@code true} if the data is in a temporary file
+     */
+    boolean isSpilled() {
+        Lock l = lock.readLock();
+        l.lock();
+
+        try {
+            return channel != null;
+
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Reserves a region at the end of the storage, to be filled by {@link #write(ByteBuffer, long)}.
+     *
+     * @param count size of the region
+     * @return start of the region
+     * @throws IOException if an I/O error occurs
+     */
+    long reserve(long count) throws IOException {
+        Lock l = lock.writeLock();
+        l.lock();
+
+        try {
+            checkNotClosed();
+
+            if (channel == null) {
+                if (size + count > spillThreshold) {
+                    spill();
+
+                } else {
+                    while ((long) chunks.size() * CHUNK_SIZE < size + count) {
+                        chunks.add(acquire());
+                    }
+                }
+            }
+
+            long start = size;
+            size += count;
+
+            return start;
+
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Appends all remaining bytes of a buffer.
+     *
+     * @param src buffer to append
+     * @throws IOException if an I/O error occurs
+     */
+    void append(ByteBuffer src) throws IOException {
+        write(src, reserve(src.remaining()));
+    }
+
+    /**
+     * Appends all bytes of an input stream.
+     *
+     * @param input stream to read from
+     * @return number of bytes appended
+     * @throws IOException if an I/O error occurs
+     */
+    long append(InputStream input) throws IOException {
+        ByteBuffer buf = acquire();
+
+        try {
+            long count = 0;
+
+            for (int n; (n = input.read(buf.array(), buf.arrayOffset(), CHUNK_SIZE)) >= 0; ) {
+                ((Buffer) buf).clear().limit(n);
+                append(buf);
+                count += n;
+            }
+
+            return count;
+
+        } finally {
+            release(buf);
+        }
+    }
+
+    /**
+     * Overwrites stored data at the specified position with all remaining bytes of a buffer.
+     *
+     * @param src      buffer to write
+     * @param position position to write to; the written region must be within stored data or reserved regions
+     * @throws IOException if an I/O error occurs
+     */
+    void write(ByteBuffer src, long position) throws IOException {
+        Lock l = lock.readLock();
+        l.lock();
+
+        try {
+            checkNotClosed();
+            checkRegion(position, src.remaining());
+
+            if (channel != null) {
+                IoChannels.writeFully(channel, src, position);
+
+            } else {
+                while (src.hasRemaining()) {
+                    ByteBuffer chunk = chunks.get((int) (position / CHUNK_SIZE)).duplicate();
+                    int offs = (int) (position % CHUNK_SIZE);
+                    int n = Math.min(CHUNK_SIZE - offs, src.remaining());
+                    ByteBuffer view = src.duplicate();
+                    ((Buffer) view).limit(view.position() + n);
+                    ((Buffer) chunk).position(offs);
+                    chunk.put(view);
+                    ((Buffer) src).position(src.position() + n);
+                    position += n;
+                }
+            }
+
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Overwrites stored data at the specified position with bytes read from an input stream.
+     * <p>
+     * The stream is read without holding the lock, so slow streams do not delay other writers.
+     *
+     * @param input    stream to read from
+     * @param position position to write to; the written region must be within stored data or reserved regions
+     * @param count    number of bytes to read
+     * @throws EOFException if the end of the stream is reached before all bytes are read
+     * @throws IOException  if an I/O error occurs
+     */
+    void write(InputStream input, long position, long count) throws IOException {
+        ByteBuffer buf = acquire();
+
+        try {
+            while (count > 0) {
+                int n = input.read(buf.array(), buf.arrayOffset(), (int) Math.min(CHUNK_SIZE, count));
+                if (n < 0) {
+                    throw new EOFException(MessageFormat.format("Stream should contain {0} more bytes, but it does not", count));
+                }
+
+                ((Buffer) buf).clear().limit(n);
+                write(buf, position);
+                position += n;
+                count -= n;
+            }
+
+        } finally {
+            release(buf);
+        }
+    }
+
+    /**
+     * Overwrites stored data at the specified position with a region of another storage.
+     *
+     * @param src         storage to copy from
+     * @param srcPosition start of the region to copy
+     * @param count       size of the region to copy
+     * @param position    position to write to; the written region must be within stored data or reserved regions
+     * @throws IOException if an I/O error occurs
+     */
+    void write(ScratchStorage src, long srcPosition, long count, long position) throws IOException {
+        src.transferTo(srcPosition, count, new WritableByteChannel() {
+            private long pos = position;
+
+            @Override
+            public int write(ByteBuffer b) throws IOException {
+                int n = b.remaining();
+                ScratchStorage.this.write(b, pos);
+                pos += n;
+
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    /**
+     * Reads stored data from the specified position.
+     *
+     * @param dst      buffer to read into
+     * @param position position to read from
+     * @return number of bytes read, possibly zero, or {@code -1} if the position is at or past the end of the data
+     * @throws IOException if an I/O error occurs, or the storage is closed
+     * @see IoChannels.PositionalReader
+     */
+    int read(ByteBuffer dst, long position) throws IOException {
+        Lock l = lock.readLock();
+        l.lock();
+
+        try {
+            checkNotClosed();
+
+            if (position >= size) {
+                return -1;
+            }
+
+            int count = (int) Math.min(dst.remaining(), size - position);
+
+            if (channel != null) {
+                ByteBuffer view = dst.duplicate();
+                ((Buffer) view).limit(view.position() + count);
+                IoChannels.readFully(channel, view, position);
+                ((Buffer) dst).position(view.position());
+
+            } else {
+                for (int n, remaining = count; remaining > 0; remaining -= n, position += n) {
+                    ByteBuffer chunk = chunks.get((int) (position / CHUNK_SIZE)).duplicate();
+                    int offs = (int) (position % CHUNK_SIZE);
+                    n = Math.min(CHUNK_SIZE - offs, remaining);
+                    ((Buffer) chunk).position(offs).limit(offs + n);
+                    dst.put(chunk);
+                }
+            }
+
+            return count;
+
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Writes a region of stored data to the specified channel.
+     *
+     * @param position start of the region
+     * @param count    size of the region
+     * @param target   channel to write to
+     * @throws IOException if an I/O error occurs, or the storage is closed
+     */
+    void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        Lock l = lock.readLock();
+        l.lock();
+
+        try {
+            checkNotClosed();
+            checkRegion(position, count);
+
+            if (channel != null) {
+                IoChannels.transferFully(channel, position, count, target);
+
+            } else {
+                for (long n; count > 0; count -= n, position += n) {
+                    ByteBuffer chunk = chunks.get((int) (position / CHUNK_SIZE)).duplicate();
+                    int offs = (int) (position % CHUNK_SIZE);
+                    n = Math.min(CHUNK_SIZE - offs, count);
+                    ((Buffer) chunk).position(offs).limit(offs + (int) n);
+                    IoChannels.writeFully(target, chunk);
+                }
+            }
+
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Discards stored data after the specified size.
+     *
+     * @param newSize new size of the data
+     * @throws IOException if an I/O error occurs
+     */
+    void truncate(long newSize) throws IOException {
+        Lock l = lock.writeLock();
+        l.lock();
+
+        try {
+            checkNotClosed();
+
+            if (newSize < size) {
+                if (channel != null) {
+                    channel.truncate(newSize);
+
+                } else {
+                    int count = (int) ((newSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+                    while (chunks.size() > count) {
+                        release(chunks.remove(chunks.size() - 1));
+                    }
+                }
+
+                size = newSize;
+            }
+
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Releases memory buffers, and deletes the temporary file.
+     * <p>
+     * Data is no longer available once the storage is closed; reads fail with {@link ClosedChannelException}.
+     */
+    @Override
+    public void close() throws IOException {
+        Lock l = lock.writeLock();
+        l.lock();
+
+        try {
+            if (!closed) {
+                closed = true;
+
+                for (ByteBuffer chunk : chunks) {
+                    release(chunk);
+                }
+                chunks.clear();
+
+                if (file != null) {
+                    try {
+                        if (channel != null) {
+                            channel.close();
+                        }
+
+                    } finally {
+                        IoFiles.delete(file, e -> logger.log(Level.WARNING, MessageFormat.format("Error deleting {0}", file), e));
+                    }
+                }
+            }
+
+        } finally {
+            l.unlock();
+        }
+    }
+
+    private void checkNotClosed() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void checkRegion(long position, long count) {
+        if ((position < 0) || (count < 0) || (position + count > size)) {
+            throw new IndexOutOfBoundsException(MessageFormat.format("Region {0}+{1} is outside of stored data", position, count));
+        }
+    }
+
+    /**
+     * Moves the data from memory buffers to a new temporary file.
+     */
+    private void spill() throws IOException {
+        Path tempFile = IoFiles.createTempFile("icns-");
+
+        try {
+            FileChannel tempChannel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            try {
+                for (int i = 0; (i < chunks.size()) && ((long) i * CHUNK_SIZE < size); i++) {
+                    long position = (long) i * CHUNK_SIZE;
+                    ByteBuffer chunk = chunks.get(i).duplicate();
+                    ((Buffer) chunk).clear().limit((int) Math.min(CHUNK_SIZE, size - position));
+                    IoChannels.writeFully(tempChannel, chunk, position);
+                }
+
+            } catch (IOException | RuntimeException e) {
+                IoStreams.close(tempChannel, e::addSuppressed);
+                throw e;
+            }
+
+            channel = tempChannel;
+            file = tempFile;
+
+        } finally {
+            if (file != tempFile) {
+                // Something went wrong - the data remains in memory
+                IoFiles.delete(tempFile, e -> logger.log(Level.WARNING, MessageFormat.format("Error deleting {0}", tempFile), e));
+            }
+        }
+
+        for (ByteBuffer chunk : chunks) {
+            release(chunk);
+        }
+        chunks.clear();
+    }
+
+    private static ByteBuffer acquire() {
+        ByteBuffer chunk = pool.poll();
+        if (chunk == null) {
+            return ByteBuffer.allocate(CHUNK_SIZE);
+        }
+
+        pooled.decrementAndGet();
+        ((Buffer) chunk).clear();
+
+        return chunk;
+    }
+
+    private static void release(ByteBuffer chunk) {
+        if (pooled.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+            pool.offer(chunk);
+
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -5,21 +5,62 @@ import org.junit.Test;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.SequenceInputStream;
 import java.net.URISyntaxException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
 public class IcnsTest {
+    @Test
+    public void testTypeLookup() {
+        for (IcnsType type : IcnsType.values()) {
+            assertSame(type, IcnsType.of(type.getOsType()));
+            assertSame(type, IcnsType.of(type.getOsTypeCode()));
+        }
+
+        assertNull(IcnsType.of(IcnsParser.TOC));
+        assertNull(IcnsType.of(0));
+    }
+
     @Test
     public void testParse() throws Exception {
         Set<String> iconTypes = new HashSet<>();
@@ -39,6 +80,183 @@ public class IcnsTest {
         assertEquals(8, imagesLoaded.get());
     }
 
+    @Test
+    public void testParseBuffer() throws Exception {
+        List<String> expected = new ArrayList<>();
+        IcnsParser.parse(getResource("/compass.icns"), (osType, type, size, input) -> expected.add(osType + ":" + size));
+
+        // Data at a non-zero position of a buffer with a non-default byte order
+        byte[] data = Files.readAllBytes(getResource("/compass.icns"));
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 3).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(3);
+        buffer.put(data);
+        buffer.position(3);
+
+        List<String> actual = new ArrayList<>();
+        IcnsParser.parse(buffer, (osType, offset, size, input) -> {
+            assertEquals(size, input.remaining());
+            assertEquals(osType, ByteBuffer.wrap(data, offset - 8, 4).getInt());
+            actual.add(IcnsType.of(osType) != null ? IcnsType.of(osType).getOsType() + ":" + size : IcnsParser.TOC + ":" + size);
+
+            return true;
+        });
+
+        assertEquals(expected, actual);
+        assertEquals(3, buffer.position());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+    }
+
+    @Test
+    public void testParsePipelined() throws Exception {
+        Set<String> expected = new HashSet<>();
+        List<String> osTypes = new ArrayList<>();
+        IcnsParser.parse(getResource("/compass.icns"), (osType, type, size, input) -> {
+            // The TOC is not handed over to the processor
+            if (!osType.equals(IcnsParser.TOC)) {
+                expected.add(osType + ":" + Arrays.hashCode(readAll(input)));
+                osTypes.add(osType);
+            }
+
+            return true;
+        });
+
+        final long budget = 64 * 1024;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            Set<String> actual = Collections.synchronizedSet(new HashSet<>());
+            AtomicLong inFlight = new AtomicLong();
+            AtomicLong maxInFlight = new AtomicLong();
+
+            IcnsParser.parse(getResource("/compass.icns"), executor, budget, (osType, type, data) -> {
+                // Icon data of files is a slice of the mapping
+                assertTrue(data.isDirect() && data.isReadOnly());
+
+                long n = inFlight.addAndGet(data.remaining());
+                maxInFlight.accumulateAndGet(n, Math::max);
+
+                byte[] b = new byte[data.remaining()];
+                data.get(b);
+                actual.add(osType + ":" + Arrays.hashCode(b));
+
+                inFlight.addAndGet(-b.length);
+            });
+
+            assertEquals(expected, actual);
+            assertTrue(maxInFlight.get() <= Math.max(budget, Files.size(getResource("/ic10_1024x1024.png"))));
+
+            // Icon data of buffers is a slice of the buffer
+            byte[] bytes = Files.readAllBytes(getResource("/compass.icns"));
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+            buffer.flip();
+            Set<String> sliced = Collections.synchronizedSet(new HashSet<>());
+
+            IcnsParser.parse(buffer, executor, budget, (osType, type, data) -> {
+                assertTrue(data.isDirect() && data.isReadOnly());
+
+                byte[] b = new byte[data.remaining()];
+                data.get(b);
+                sliced.add(osType + ":" + Arrays.hashCode(b));
+            });
+
+            assertEquals(expected, sliced);
+            assertEquals(0, buffer.position());
+
+            // The first failure is rethrown, and parsing stops
+            AtomicInteger processed = new AtomicInteger();
+            try (InputStream is = Files.newInputStream(getResource("/compass.icns"))) {
+                IcnsParser.parse(is, executor, 1, (osType, type, data) -> {
+                    processed.incrementAndGet();
+                    throw new IOException(osType);
+                });
+                fail();
+
+            } catch (IOException e) {
+                assertEquals(osTypes.get(0), e.getMessage());
+                assertEquals(1, processed.get());
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPushParser() throws Exception {
+        byte[] data = Files.readAllBytes(getResource("/compass.icns"));
+        List<String> expected = new ArrayList<>();
+        IcnsParser.parse(getResource("/compass.icns"), (osType, type, size, input) -> {
+            expected.add(osType + ":" + size + ":" + Arrays.hashCode(readAll(input)));
+
+            return true;
+        });
+
+        for (int chunkSize : new int[]{1, 7, 4096, data.length + 1}) {
+            List<String> actual = new ArrayList<>();
+            IcnsPushParser parser = IcnsPushParser.newInstance(new IcnsPushParser.Handler() {
+                String current;
+                ByteArrayOutputStream bos;
+
+                @Override
+                public void onEntryStart(String osType, IcnsType type, int size) {
+                    assertNull(current);
+                    current = osType + ":" + size;
+                    bos = new ByteArrayOutputStream();
+                }
+
+                @Override
+                public void onEntryData(ByteBuffer data) {
+                    assertTrue(data.hasRemaining());
+                    while (data.hasRemaining()) {
+                        bos.write(data.get());
+                    }
+                }
+
+                @Override
+                public void onEntryEnd() {
+                    actual.add(current + ":" + Arrays.hashCode(bos.toByteArray()));
+                    current = null;
+                }
+            });
+
+            // Trailing data is left in the last chunk
+            ByteBuffer input = ByteBuffer.allocate(data.length + 2).put(data).put((byte) 1).put((byte) 2);
+            input.flip();
+            while (input.hasRemaining() && !parser.isDone()) {
+                ByteBuffer chunk = input.slice();
+                chunk.limit(Math.min(chunkSize, chunk.remaining()));
+                parser.feed(chunk);
+                input.position(input.position() + chunk.position());
+            }
+
+            parser.finish();
+            assertEquals(expected, actual);
+            assertEquals(2, input.remaining());
+        }
+
+        IcnsPushParser parser = IcnsPushParser.newInstance((osType, type, size) -> {
+        });
+        parser.feed(ByteBuffer.wrap(data, 0, data.length - 1));
+        assertFalse(parser.isDone());
+
+        try {
+            parser.finish();
+            fail();
+
+        } catch (EOFException e) {
+            // Expected
+        }
+
+        try {
+            IcnsPushParser.newInstance((osType, type, size) -> {
+            }).feed(ByteBuffer.wrap(Files.readAllBytes(getResource("/is32"))));
+            fail();
+
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
     @Test
     public void testLoad() throws Exception {
         try (IcnsIcons icons = IcnsIcons.load(getResource("/compass.icns"))) {
@@ -57,6 +275,639 @@ public class IcnsTest {
         }
     }
 
+    @Test
+    public void testOpen() throws Exception {
+        Path file = getResource("/").resolve("open.icns");
+        Files.copy(getResource("/compass.icns"), file, StandardCopyOption.REPLACE_EXISTING);
+
+        try (IcnsIcons expected = IcnsIcons.load(getResource("/compass.icns"))) {
+            // The file is not kept open, so it may be deleted
+            IcnsIcons loaded = IcnsIcons.load(file);
+            Files.delete(file);
+
+            try {
+                readAll(loaded.getEntries().get(0));
+                fail();
+
+            } catch (IOException e) {
+                // Expected
+            }
+
+            Files.copy(getResource("/compass.icns"), file);
+
+            try (IcnsIcons icons = IcnsIcons.open(file)) {
+                assertEquals(12, icons.getEntries().size());
+
+                for (int i = 0; i < icons.getEntries().size(); i++) {
+                    assertEquals(expected.getEntries().get(i).getOsType(), icons.getEntries().get(i).getOsType());
+                    assertArrayEquals(readAll(expected.getEntries().get(i)), readAll(icons.getEntries().get(i)));
+                }
+            }
+
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testLoadChannel() throws Exception {
+        IcnsIcons expected = IcnsIcons.load(ByteBuffer.wrap(Files.readAllBytes(getResource("/compass.icns"))));
+
+        try (SeekableByteChannel channel = Files.newByteChannel(getResource("/compass.icns"))) {
+            try (IcnsIcons icons = IcnsIcons.load(channel)) {
+                assertEquals(12, icons.getEntries().size());
+
+                // Read backwards, so that every read needs to go back in the channel
+                for (int i = icons.getEntries().size() - 1; i >= 0; i--) {
+                    IcnsIcons.Entry e = icons.getEntries().get(i);
+                    assertEquals(expected.getEntries().get(i).getOsType(), e.getOsType());
+                    assertArrayEquals(readAll(expected.getEntries().get(i)), readAll(e));
+                }
+            }
+
+            assertTrue(channel.isOpen());
+        }
+
+        // Truncated data, a TOC entry extending past the end of data, and an entry header doing so
+        byte[] data = Files.readAllBytes(getResource("/compass.icns"));
+        int tocSize = ByteBuffer.wrap(data).getInt(12);
+        List<byte[]> corrupt = new ArrayList<>();
+        corrupt.add(Arrays.copyOf(data, data.length - 1));
+        corrupt.add(ByteBuffer.wrap(data.clone()).putInt(20, data.length).array());
+        corrupt.add(ByteBuffer.wrap(data.clone()).putInt(8 + tocSize + 4, data.length).array());
+
+        // The same without the TOC, where only entry headers bound the entries
+        ByteBuffer noToc = ByteBuffer.allocate(data.length - tocSize);
+        noToc.put(data, 0, 4).putInt(data.length - tocSize).put(data, 8 + tocSize, data.length - 8 - tocSize);
+        corrupt.add(Arrays.copyOf(noToc.array(), noToc.capacity() - 1));
+        corrupt.add(ByteBuffer.wrap(noToc.array().clone()).putInt(12, noToc.capacity()).array());
+
+        Path file = getResource("/").resolve("corrupt.icns");
+        for (byte[] b : corrupt) {
+            Files.write(file, b);
+
+            try {
+                try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+                    IcnsParser.parse(channel, (osType, type, size, input) -> true);
+                    IcnsIcons.load(channel);
+                    fail();
+
+                } catch (IOException e) {
+                    // Expected
+                }
+
+                // Loading asynchronously rejects the same data as loading synchronously
+                boolean rejected;
+                try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+                    IcnsIcons.load(channel);
+                    rejected = false;
+
+                } catch (IOException e) {
+                    rejected = true;
+                }
+
+                try {
+                    IcnsIcons.loadAsync(file).get().close();
+                    assertFalse(rejected);
+
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                    assertTrue(rejected);
+                }
+
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testLoadWithoutToc() throws Exception {
+        // Drop the TOC from the test file
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(getResource("/compass.icns")));
+        int tocSize = data.getInt(12);
+        ByteBuffer noToc = ByteBuffer.allocate(data.capacity() - tocSize);
+        noToc.putInt(data.getInt(0)).putInt(data.getInt(4) - tocSize);
+        data.position(8 + tocSize);
+        noToc.put(data);
+
+        Path file = getResource("/").resolve("no-toc.icns");
+        Files.write(file, noToc.array());
+
+        IcnsIcons expected = IcnsIcons.load(getResource("/compass.icns"));
+        try (CountingChannel channel = new CountingChannel(Files.newByteChannel(file))) {
+            try (IcnsIcons icons = IcnsIcons.load(channel)) {
+                // Only the file header and entry headers have been read
+                assertEquals(8 + 12 * 8, channel.bytesRead);
+
+                assertEquals(12, icons.getEntries().size());
+                for (int i = 0; i < icons.getEntries().size(); i++) {
+                    assertEquals(expected.getEntries().get(i).getOsType(), icons.getEntries().get(i).getOsType());
+                    assertArrayEquals(readAll(expected.getEntries().get(i)), readAll(icons.getEntries().get(i)));
+                }
+            }
+
+        } finally {
+            expected.close();
+        }
+    }
+
+    @Test
+    public void testEntryLookup() throws Exception {
+        try (IcnsIcons icons = IcnsIcons.load(getResource("/compass.icns"))) {
+            for (IcnsIcons.Entry e : icons.getEntries()) {
+                assertSame(e, icons.getEntry(e.getType()));
+                assertSame(e, icons.getEntry(e.getType().getOsTypeCode()));
+            }
+
+            assertNull(icons.getEntry(IcnsType.ICNS_48x48_24BIT_IMAGE));
+            assertNull(icons.getEntry(0));
+
+            List<IcnsIcons.Entry> entries = icons.getEntries(256, 256);
+            assertEquals(2, entries.size());
+            assertSame(icons.getEntry(IcnsType.ICNS_256x256_JPEG_PNG_IMAGE), entries.get(0));
+            assertSame(icons.getEntry(IcnsType.ICNS_128x128_2X_JPEG_PNG_IMAGE), entries.get(1));
+
+            assertTrue(icons.getEntries(48, 48).isEmpty());
+        }
+    }
+
+    @Test
+    public void testMap() throws Exception {
+        try (IcnsIcons icons = IcnsIcons.map(getResource("/compass.icns"))) {
+            assertEquals(12, icons.getEntries().size());
+
+            int imagesLoaded = 0;
+            for (IcnsIcons.Entry e : icons.getEntries()) {
+                ByteBuffer buf = e.asReadOnlyBuffer();
+                assertNotNull(buf);
+                assertTrue(buf.isReadOnly());
+                assertEquals(e.getSize(), buf.remaining());
+
+                try (InputStream is = e.newInputStream()) {
+                    if (loadImage(e.getOsType(), e.getType(), e.getSize(), is)) {
+                        imagesLoaded++;
+                    }
+                }
+            }
+
+            assertEquals(8, imagesLoaded);
+        }
+    }
+
+    @Test
+    public void testEntryTransfer() throws Exception {
+        Path file = getResource("/compass.icns");
+        byte[] il32 = Files.readAllBytes(getResource("/il32"));
+        byte[] ic10 = Files.readAllBytes(getResource("/ic10_1024x1024.png"));
+
+        try (IcnsBuilder builder = IcnsBuilder.getInstance(0)) {
+            builder.add(IcnsType.ICNS_32x32_24BIT_IMAGE, new ByteArrayInputStream(il32));
+            builder.add(IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE, getResource("/ic10_1024x1024.png"));
+
+            try (IcnsIcons loaded = IcnsIcons.load(file);
+                 IcnsIcons mapped = IcnsIcons.map(file);
+                 IcnsIcons supplied = IcnsIcons.load(() -> Files.newInputStream(file));
+                 IcnsIcons built = builder.build()) {
+                for (IcnsIcons icons : Arrays.asList(loaded, mapped, supplied, built)) {
+                    for (IcnsType type : Arrays.asList(IcnsType.ICNS_32x32_24BIT_IMAGE, IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE)) {
+                        byte[] expected = (type == IcnsType.ICNS_32x32_24BIT_IMAGE) ? il32 : ic10;
+                        IcnsIcons.Entry e = icons.getEntry(type);
+
+                        ByteBuffer direct = ByteBuffer.allocateDirect(e.getSize() + 1);
+                        assertEquals(e.getSize(), e.readInto(direct));
+                        assertEquals(e.getSize(), direct.position());
+                        direct.flip();
+                        assertEquals(ByteBuffer.wrap(expected), direct);
+
+                        // Reads stop when the buffer is full
+                        ByteBuffer small = ByteBuffer.allocate(100);
+                        assertEquals(100, e.readInto(small));
+                        assertEquals(ByteBuffer.wrap(expected, 0, 100), (ByteBuffer) small.flip());
+
+                        ByteArrayOutputStream os = new ByteArrayOutputStream();
+                        e.transferTo(Channels.newChannel(os));
+                        assertArrayEquals(expected, os.toByteArray());
+                    }
+                }
+
+                // File-backed entries are mapped, unless they only have a stream
+                assertEquals(ByteBuffer.wrap(ic10), loaded.getEntry(IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE).asReadOnlyBuffer());
+                assertEquals(ByteBuffer.wrap(ic10), built.getEntry(IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE).asReadOnlyBuffer());
+                assertTrue(built.getEntry(IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE).asReadOnlyBuffer().isReadOnly());
+                assertNull(supplied.getEntry(IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE).asReadOnlyBuffer());
+            }
+        }
+    }
+
+    @Test
+    public void testWriteToBuffer() throws Exception {
+        byte[] expected = Files.readAllBytes(getResource("/compass.icns"));
+
+        try (IcnsBuilder builder = IcnsBuilder.getInstance(Long.MAX_VALUE);
+             IcnsIcons loaded = IcnsIcons.load(getResource("/compass.icns"))) {
+            for (IcnsIcons.Entry e : loaded.getEntries()) {
+                builder.add(e.getOsType(), e.newInputStream());
+            }
+
+            try (IcnsIcons built = builder.build()) {
+                for (IcnsIcons icons : Arrays.asList(loaded, built)) {
+                    assertEquals(expected.length, icons.getSerializedSize());
+                    assertArrayEquals(expected, icons.toByteArray());
+
+                    // Written at the current position, regardless of byte order
+                    ByteBuffer buf = ByteBuffer.allocateDirect(expected.length + 20).order(ByteOrder.LITTLE_ENDIAN);
+                    buf.position(10);
+                    icons.writeTo(buf);
+                    assertEquals(expected.length + 10, buf.position());
+                    buf.flip().position(10);
+                    assertEquals(ByteBuffer.wrap(expected), buf);
+
+                    try {
+                        icons.writeTo(ByteBuffer.allocate(expected.length - 1));
+                        fail();
+
+                    } catch (BufferOverflowException e) {
+                        // expected
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWriteToChannel() throws Exception {
+        byte[] expected = Files.readAllBytes(getResource("/compass.icns"));
+
+        try (IcnsIcons icons = IcnsIcons.load(getResource("/compass.icns"))) {
+            Path output = getResource("/").resolve("written.icns");
+            icons.writeTo(output);
+
+            assertArrayEquals(expected, Files.readAllBytes(output));
+        }
+
+        try (IcnsIcons icons = IcnsIcons.map(getResource("/compass.icns"))) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            icons.writeTo(Channels.newChannel(bos));
+
+            assertArrayEquals(expected, bos.toByteArray());
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        byte[] expected = Files.readAllBytes(getResource("/compass.icns"));
+        Path output = getResource("/").resolve("written-async.icns");
+
+        try (IcnsIcons icons = IcnsIcons.loadAsync(getResource("/compass.icns")).get();
+             IcnsIcons reference = IcnsIcons.load(getResource("/compass.icns"))) {
+            assertEquals(12, icons.getEntries().size());
+
+            for (int i = 0; i < icons.getEntries().size(); i++) {
+                IcnsIcons.Entry e = icons.getEntries().get(i);
+                byte[] data = readAll(reference.getEntries().get(i));
+                assertEquals(reference.getEntries().get(i).getOsType(), e.getOsType());
+
+                ByteBuffer buf = ByteBuffer.allocate(e.getSize() + 1);
+                assertEquals(e.getSize(), e.readAsync(buf).get().intValue());
+                assertEquals(e.getSize(), buf.position());
+                assertArrayEquals(data, Arrays.copyOf(buf.array(), e.getSize()));
+                assertArrayEquals(data, readAll(e));
+
+                // Partial read into a direct buffer, through a synchronously read entry
+                ByteBuffer direct = ByteBuffer.allocateDirect(e.getSize() / 2);
+                assertEquals(direct.capacity(), reference.getEntries().get(i).readAsync(direct).get().intValue());
+                assertFalse(direct.hasRemaining());
+            }
+
+            icons.writeToAsync(output).get();
+            assertArrayEquals(expected, Files.readAllBytes(output));
+        }
+
+        try (IcnsIcons icons = IcnsIcons.map(getResource("/compass.icns"))) {
+            icons.writeToAsync(output).get();
+            assertArrayEquals(expected, Files.readAllBytes(output));
+        }
+
+        // Entries read through streams open a single stream each, and so do entries implemented outside the library
+        AtomicInteger opened = new AtomicInteger();
+        try (IcnsIcons icons = IcnsIcons.load(() -> {
+            opened.incrementAndGet();
+            return Files.newInputStream(getResource("/compass.icns"));
+        })) {
+            List<IcnsIcons.Entry> entries = new ArrayList<>();
+            for (IcnsIcons.Entry e : icons.getEntries()) {
+                entries.add(new IcnsIcons.Entry() {
+                    @Override
+                    public String getOsType() {
+                        return e.getOsType();
+                    }
+
+                    @Override
+                    public IcnsType getType() {
+                        return e.getType();
+                    }
+
+                    @Override
+                    public int getSize() {
+                        return e.getSize();
+                    }
+
+                    @Override
+                    public InputStream newInputStream() throws IOException {
+                        return e.newInputStream();
+                    }
+                });
+            }
+
+            opened.set(0);
+            icons.writeToAsync(output).get();
+            assertArrayEquals(expected, Files.readAllBytes(output));
+            assertEquals(icons.getEntries().size(), opened.get());
+
+            opened.set(0);
+            new IcnsIconsImpl(entries, null).writeToAsync(output).get();
+            assertArrayEquals(expected, Files.readAllBytes(output));
+            assertEquals(entries.size(), opened.get());
+
+            ByteBuffer buf = ByteBuffer.allocate(entries.get(0).getSize());
+            assertEquals(buf.capacity(), entries.get(0).readAsync(buf).get().intValue());
+            assertArrayEquals(readAll(icons.getEntries().get(0)), buf.array());
+            assertNull(entries.get(0).asReadOnlyBuffer());
+        }
+
+        try {
+            IcnsIcons.loadAsync(getResource("/is32")).get();
+            fail();
+
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        Path file = getResource("/compass.icns");
+        byte[] expected = Files.readAllBytes(file);
+        List<IcnsIcons> sources = new ArrayList<>();
+        final int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try (SeekableByteChannel channel = Files.newByteChannel(file);
+             IcnsBuilder builder = IcnsBuilder.getInstance(200000)) {
+            sources.add(IcnsIcons.load(file));
+            sources.add(IcnsIcons.open(file));
+            sources.add(IcnsIcons.map(file));
+            sources.add(IcnsIcons.loadAsync(file).get());
+            sources.add(IcnsIcons.load(ByteBuffer.wrap(expected)));
+            sources.add(IcnsIcons.load(() -> Files.newInputStream(file)));
+            // Not a FileChannel, so reads are serialized
+            sources.add(IcnsIcons.load(new CountingChannel(channel)));
+
+            for (IcnsIcons.Entry e : sources.get(0).getEntries()) {
+                builder.add(e.getOsType(), e.newInputStream());
+            }
+            sources.add(builder.build());
+
+            List<byte[]> data = new ArrayList<>();
+            for (IcnsIcons.Entry e : sources.get(0).getEntries()) {
+                data.add(readAll(e));
+            }
+
+            // All threads start at once, and read entries of the same instances in different orders
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int t = 0; t < threads; t++) {
+                final int seed = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+
+                    for (int i = 0; i < 20; i++) {
+                        IcnsIcons icons = sources.get((seed + i) % sources.size());
+                        int n = (seed * 7 + i) % data.size();
+                        IcnsIcons.Entry e = icons.getEntries().get(n);
+
+                        switch ((seed + i) % 4) {
+                            case 0:
+                                assertArrayEquals(data.get(n), readAll(e));
+                                break;
+
+                            case 1:
+                                ByteBuffer buf = ByteBuffer.allocate(e.getSize());
+                                e.readAsync(buf).get();
+                                assertArrayEquals(data.get(n), buf.array());
+                                break;
+
+                            case 2:
+                                assertSame(e, icons.getEntry(IcnsIconsImpl.toInt(e.getOsType())));
+                                if (e.getType() != null) {
+                                    assertSame(e, icons.getEntry(e.getType()));
+                                    assertTrue(icons.getEntries(e.getType().getWidth(), e.getType().getHeight()).contains(e));
+                                }
+                                break;
+
+                            default:
+                                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                                icons.writeTo(os);
+                                assertArrayEquals(expected, os.toByteArray());
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> f : futures) {
+                f.get();
+            }
+
+        } finally {
+            executor.shutdown();
+
+            for (IcnsIcons icons : sources) {
+                icons.close();
+            }
+        }
+    }
+
+    @Test
+    public void testScanner() throws Exception {
+        Path root = Files.createTempDirectory("icns-scan-");
+
+        try {
+            List<Path> icons = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                Path dir = root.resolve("d" + (i % 3)).resolve("e" + (i % 2));
+                Files.createDirectories(dir);
+                icons.add(Files.copy(getResource("/compass.icns"), dir.resolve(i + ((i % 10 == 0) ? ".ICNS" : ".icns"))));
+            }
+            Files.copy(getResource("/is32"), root.resolve("d0").resolve("other.png"));
+            Path broken = Files.copy(getResource("/is32"), root.resolve("broken.icns"));
+
+            Map<Path, IcnsScanner.FileResult> results = new ConcurrentHashMap<>();
+            IcnsScanner.scan(root, 4, result -> assertNull(results.put(result.getFile(), result)));
+
+            assertEquals(icons.size() + 1, results.size());
+            assertNotNull(results.get(broken).getError());
+            assertTrue(results.get(broken).getEntries().isEmpty());
+
+            try (IcnsIcons expected = IcnsIcons.map(getResource("/compass.icns"))) {
+                for (Path p : icons) {
+                    IcnsScanner.FileResult result = results.get(p);
+                    assertNull(result.getError());
+                    assertEquals(Files.size(p), result.getSize());
+                    assertEquals(expected.getEntries().size(), result.getEntries().size());
+
+                    for (int i = 0; i < result.getEntries().size(); i++) {
+                        IcnsScanner.EntryInfo e = result.getEntries().get(i);
+                        assertEquals(expected.getEntries().get(i).getOsType(), e.getOsType());
+                        assertEquals(expected.getEntries().get(i).getSize(), e.getSize());
+
+                        ByteBuffer data = ByteBuffer.allocate(e.getSize());
+                        try (FileChannel channel = FileChannel.open(p)) {
+                            channel.read(data, e.getOffset());
+                        }
+                        data.flip();
+                        assertEquals(expected.getEntries().get(i).asReadOnlyBuffer(), data);
+                    }
+                }
+            }
+
+            StringBuilder csv = new StringBuilder();
+            IcnsScanner.Format.CSV.writeHeader(csv);
+            IcnsScanner.Format.CSV.write(results.get(icons.get(0)), csv);
+            IcnsScanner.Format.CSV.write(results.get(broken), csv);
+            String[] lines = csv.toString().split("\n");
+            assertEquals(1 + 12 + 1, lines.length);
+            assertTrue(lines[1].startsWith(icons.get(0) + ",is32,ICNS_16x16_24BIT_IMAGE,16,16,"));
+            assertTrue(lines[13].startsWith(broken + ",,,,,,,"));
+
+            StringBuilder json = new StringBuilder();
+            IcnsScanner.Format.JSON.write(results.get(icons.get(0)), json);
+            assertTrue(json.toString().endsWith("]}\n"));
+            assertTrue(json.toString().contains("{\"osType\":\"ic09\",\"type\":\"ICNS_512x512_JPEG_PNG_IMAGE\",\"width\":512,\"height\":512,"));
+
+            // Command line: invalid arguments are reported with usage, and standard output is not closed
+            AtomicBoolean closed = new AtomicBoolean();
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    closed.set(true);
+                }
+            };
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+            for (String[] args : new String[][]{{}, {"-f"}, {"-p"}, {"-o"}, {"-f", "xml", "."}, {"-p", "x", "."}, {"-p", "0", "."}, {"-x", "."}}) {
+                err.reset();
+                assertEquals(2, IcnsScannerMain.run(args, new PrintStream(out), new PrintStream(err)));
+                assertTrue(err.toString().contains("Usage:"));
+            }
+
+            assertEquals(0, IcnsScannerMain.run(new String[]{"-f", "json", "-p", "2", root.toString()}, new PrintStream(out), new PrintStream(err)));
+            assertEquals(results.size(), out.toString().split("\n").length);
+            assertFalse(closed.get());
+
+            Path report = Files.createTempFile("icns-report-", ".csv");
+            try {
+                assertEquals(0, IcnsScannerMain.run(new String[]{"-o", report.toString(), root.toString()}, new PrintStream(out), new PrintStream(err)));
+                assertEquals(1 + icons.size() * 12 + 1, Files.readAllLines(report).size());
+
+            } finally {
+                Files.delete(report);
+            }
+
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        Path root = Files.createTempDirectory("icns-index-");
+        Path indexFile = root.resolve("icons.idx");
+
+        try {
+            Path dir = Files.createDirectories(root.resolve("icons"));
+            Path a = Files.copy(getResource("/compass.icns"), dir.resolve("a.icns"));
+            Path b = Files.copy(getResource("/compass.icns"), dir.resolve("b.icns"));
+            Path c = Files.copy(getResource("/compass.icns"), dir.resolve("c.icns"));
+
+            try (IcnsIndex index = IcnsIndex.open(indexFile)) {
+                assertEquals(0, index.getFileCount());
+                assertTrue(index.getEntries(a).isEmpty());
+            }
+
+            try (IcnsIndex index = IcnsIndex.refresh(indexFile, dir, 2);
+                 IcnsIcons expected = IcnsIcons.load(getResource("/compass.icns"))) {
+                assertEquals(3, index.getFileCount());
+                assertIndexed(expected, index.getEntries(a));
+                assertIndexed(expected, index.getEntries(dir.resolve("x").resolve("..").resolve("c.icns")));
+                assertNull(index.getEntry(a, 0x78787878));
+                assertArrayEquals(Files.readAllBytes(getResource("/ic09_512x512.png")), readAll(index.getEntry(b, IcnsType.ICNS_512x512_JPEG_PNG_IMAGE)));
+            }
+
+            // Overwrite a file keeping its size and modification time, so that it is not rescanned
+            byte[] data = Files.readAllBytes(b);
+            Arrays.fill(data, 8, data.length, (byte) 0);
+            FileTime lastModified = Files.getLastModifiedTime(b);
+            Files.write(b, data);
+            Files.setLastModifiedTime(b, lastModified);
+
+            // Truncate, delete and add files
+            Files.write(a, Files.readAllBytes(getResource("/is32")));
+            Files.delete(c);
+            Path d = Files.copy(getResource("/compass.icns"), dir.resolve("d.icns"));
+
+            try (IcnsIndex index = IcnsIndex.refresh(indexFile, dir, 2);
+                 IcnsIcons expected = IcnsIcons.load(getResource("/compass.icns"))) {
+                assertEquals(2, index.getFileCount());
+                assertTrue(index.getEntries(a).isEmpty());
+                assertTrue(index.getEntries(c).isEmpty());
+                assertEquals(expected.getEntries().size(), index.getEntries(b).size());
+                assertIndexed(expected, index.getEntries(d));
+
+                index.close();
+                try {
+                    index.getEntries(d);
+                    fail();
+
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+            }
+
+            // Counts overflowing an int, and file records pointing outside of the entry table or the paths
+            byte[] valid = Files.readAllBytes(indexFile);
+            int[][] corruptions = {{8, 0x08000000, 12, 0x0CCCCCCC}, {16, -1}, {16, valid.length}, {20, valid.length},
+                    {40, -1}, {40, Integer.MAX_VALUE}, {44, -1}, {44, Integer.MAX_VALUE}};
+
+            for (int[] corruption : corruptions) {
+                ByteBuffer corrupt = ByteBuffer.wrap(valid.clone());
+                for (int i = 0; i < corruption.length; i += 2) {
+                    corrupt.putInt(corruption[i], corruption[i + 1]);
+                }
+                Files.write(indexFile, corrupt.array());
+
+                try {
+                    IcnsIndex.open(indexFile);
+                    fail();
+
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
     @Test
     public void testBuild() throws Exception {
         try (IcnsBuilder builder = IcnsBuilder.getInstance()) {
@@ -86,6 +937,361 @@ public class IcnsTest {
         }
     }
 
+    @Test
+    public void testBuildWriteToPath() throws Exception {
+        IcnsType[] types = {IcnsType.ICNS_16x16_24BIT_IMAGE, IcnsType.ICNS_16x16_8BIT_MASK, IcnsType.ICNS_32x32_24BIT_IMAGE,
+                IcnsType.ICNS_32x32_8BIT_MASK, IcnsType.ICNS_128x128_JPEG_PNG_IMAGE, IcnsType.ICNS_256x256_JPEG_PNG_IMAGE,
+                IcnsType.ICNS_512x512_JPEG_PNG_IMAGE, IcnsType.ICNS_16x16_2X_JPEG_PNG_IMAGE, IcnsType.ICNS_32x32_2X_JPEG_PNG_IMAGE,
+                IcnsType.ICNS_128x128_2X_JPEG_PNG_IMAGE, IcnsType.ICNS_256x256_2X_JPEG_PNG_IMAGE, IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE};
+        String[] resources = {"/is32", "/s8mk", "/il32", "/l8mk", "/ic07_128x128.png", "/ic08_256x256.png", "/ic09_512x512.png",
+                "/ic11_16x16@2x.png", "/ic12_32x32@2x.png", "/ic13_128x128@2x.png", "/ic14_256x256@2x.png", "/ic10_1024x1024.png"};
+        byte[] expected = Files.readAllBytes(getResource("/compass.icns"));
+
+        try (IcnsBuilder builder = IcnsBuilder.getInstance()) {
+            for (int i = 0; i < types.length; i++) {
+                try (InputStream is = Files.newInputStream(getResource(resources[i]))) {
+                    builder.add(types[i], is);
+                }
+            }
+
+            try (IcnsIcons builtIcons = builder.build()) {
+                Path output = getResource("/").resolve("generated-path.icns");
+
+                try {
+                    builtIcons.writeTo(output);
+                    assertArrayEquals(expected, Files.readAllBytes(output));
+
+                    builtIcons.writeToAsync(output).get();
+                    assertArrayEquals(expected, Files.readAllBytes(output));
+
+                } finally {
+                    Files.deleteIfExists(output);
+                }
+
+                for (IcnsIcons.Entry e : builtIcons.getEntries()) {
+                    try (InputStream is = e.newInputStream()) {
+                        loadImage(e.getOsType(), e.getType(), e.getSize(), is);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBuildInMemory() throws Exception {
+        byte[] expected = Files.readAllBytes(getResource("/compass.icns"));
+        String[] resources = {"/is32", "/s8mk", "/il32", "/l8mk", "/ic07_128x128.png", "/ic08_256x256.png", "/ic09_512x512.png",
+                "/ic11_16x16@2x.png", "/ic12_32x32@2x.png", "/ic13_128x128@2x.png", "/ic14_256x256@2x.png", "/ic10_1024x1024.png"};
+
+        // Data kept in memory, spilled in the middle of an entry, spilled right away
+        for (long threshold : new long[]{Long.MAX_VALUE, 100000, 0}) {
+            try (IcnsBuilder builder = IcnsBuilder.getInstance(threshold)) {
+                for (String name : resources) {
+                    try {
+                        builder.add("fail", new SequenceInputStream(Files.newInputStream(getResource(name)), new InputStream() {
+                            @Override
+                            public int read() throws IOException {
+                                throw new IOException("Test");
+                            }
+                        }));
+                        fail();
+
+                    } catch (IOException e) {
+                        // Partially added data is discarded
+                        assertEquals("Test", e.getMessage());
+                    }
+
+                    builder.add(IcnsType.of(name.substring(1, 5)), Files.newInputStream(getResource(name)));
+                }
+
+                try (IcnsIcons builtIcons = builder.build()) {
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    builtIcons.writeTo(output);
+                    assertArrayEquals(expected, output.toByteArray());
+
+                    for (int i = 0; i < resources.length; i++) {
+                        IcnsIcons.Entry e = builtIcons.getEntries().get(i);
+                        assertArrayEquals(Files.readAllBytes(getResource(resources[i])), readAll(e));
+
+                        ByteBuffer buf = ByteBuffer.allocate(e.getSize());
+                        assertEquals(e.getSize(), e.readAsync(buf).get().intValue());
+                        assertArrayEquals(Files.readAllBytes(getResource(resources[i])), buf.array());
+                    }
+
+                    builtIcons.close();
+                    try {
+                        readAll(builtIcons.getEntries().get(0));
+                        fail();
+
+                    } catch (IOException e) {
+                        // expected
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBuildConcurrently() throws Exception {
+        byte[] expected = Files.readAllBytes(getResource("/compass.icns"));
+        String[] resources = {"/is32", "/s8mk", "/il32", "/l8mk", "/ic07_128x128.png", "/ic08_256x256.png", "/ic09_512x512.png",
+                "/ic11_16x16@2x.png", "/ic12_32x32@2x.png", "/ic13_128x128@2x.png", "/ic14_256x256@2x.png", "/ic10_1024x1024.png"};
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (long threshold : new long[]{Long.MAX_VALUE, 300000, 0}) {
+                try (IcnsBuilder builder = IcnsBuilder.getInstance(threshold)) {
+                    List<Future<?>> futures = new ArrayList<>();
+
+                    // Added in reverse order, half of them with known size
+                    for (int i = resources.length - 1; i >= 0; i--) {
+                        final int key = i;
+                        futures.add(executor.submit(() -> {
+                            Path file = getResource(resources[key]);
+                            String osType = resources[key].substring(1, 5);
+
+                            try (InputStream is = Files.newInputStream(file)) {
+                                if (key % 2 == 0) {
+                                    builder.add(key, osType, is);
+
+                                } else {
+                                    builder.add(key, osType, is, Files.size(file));
+                                }
+                            }
+
+                            return null;
+                        }));
+                    }
+
+                    for (Future<?> f : futures) {
+                        f.get();
+                    }
+
+                    try {
+                        builder.add(0, "is32", new ByteArrayInputStream(new byte[10]), 11);
+                        fail();
+
+                    } catch (EOFException e) {
+                        // expected
+                    }
+
+                    try (IcnsIcons builtIcons = builder.build()) {
+                        ByteArrayOutputStream output = new ByteArrayOutputStream();
+                        builtIcons.writeTo(output);
+                        assertArrayEquals(expected, output.toByteArray());
+                    }
+                }
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBuildContended() throws Exception {
+        byte[] small = Files.readAllBytes(getResource("/is32"));
+        byte[] large = new byte[3 << 20];
+        new Random(1).nextBytes(large);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try (IcnsBuilder builder = IcnsBuilder.getInstance(0)) {
+            // An add kept in progress until released, so that other adds are contended
+            Future<?> slow = executor.submit(() -> builder.add(0, "is32", new FilterInputStream(new ByteArrayInputStream(small)) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    reading.countDown();
+
+                    try {
+                        release.await();
+
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+
+                    return super.read(b, off, len);
+                }
+            }, small.length));
+            reading.await();
+
+            // Neither a small nor a large stream waits for the add in progress
+            executor.submit(() -> builder.add(1, "s8mk", new ByteArrayInputStream(small))).get();
+            executor.submit(() -> builder.add(2, "ic10", new ByteArrayInputStream(large))).get();
+            release.countDown();
+            slow.get();
+
+            try (IcnsIcons icons = builder.build()) {
+                assertEquals(3, icons.getEntries().size());
+                assertArrayEquals(small, readAll(icons.getEntries().get(0)));
+                assertArrayEquals(small, readAll(icons.getEntries().get(1)));
+                assertArrayEquals(large, readAll(icons.getEntries().get(2)));
+                assertEquals("ic10", icons.getEntries().get(2).getOsType());
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBuildWaitsForAdds() throws Exception {
+        byte[] small = Files.readAllBytes(getResource("/is32"));
+        byte[] large = new byte[3 << 20];
+        new Random(2).nextBytes(large);
+
+        for (long threshold : new long[]{Long.MAX_VALUE, 0}) {
+            CountDownLatch reading = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+
+            try (IcnsBuilder builder = IcnsBuilder.getInstance(threshold)) {
+                // An add larger than the staging size, kept in progress until released, while another add completes
+                Future<?> slow = executor.submit(() -> builder.add(1, "ic10", new FilterInputStream(new ByteArrayInputStream(large)) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (in.available() < large.length / 2) {
+                            reading.countDown();
+
+                            try {
+                                release.await();
+
+                            } catch (InterruptedException e) {
+                                throw new InterruptedIOException();
+                            }
+                        }
+
+                        return super.read(b, off, len);
+                    }
+                }));
+                reading.await();
+                executor.submit(() -> builder.add(0, "is32", new ByteArrayInputStream(small))).get();
+
+                Future<IcnsIcons> built = executor.submit(builder::build);
+                Thread.sleep(100);
+                assertFalse(built.isDone());
+
+                release.countDown();
+                slow.get();
+
+                try (IcnsIcons icons = built.get()) {
+                    assertEquals(2, icons.getEntries().size());
+                    assertArrayEquals(small, readAll(icons.getEntries().get(0)));
+                    assertArrayEquals(large, readAll(icons.getEntries().get(1)));
+
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    icons.writeTo(os);
+
+                    try (IcnsIcons loaded = IcnsIcons.load(ByteBuffer.wrap(os.toByteArray()))) {
+                        assertArrayEquals(large, readAll(loaded.getEntries().get(1)));
+                    }
+                }
+
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testBuildReset() throws Exception {
+        byte[] is32 = Files.readAllBytes(getResource("/is32"));
+        byte[] ic07 = Files.readAllBytes(getResource("/ic07_128x128.png"));
+
+        for (long threshold : new long[]{Long.MAX_VALUE, 0}) {
+            try (IcnsBuilder builder = IcnsBuilder.getInstance(threshold)) {
+                builder.add(IcnsType.ICNS_16x16_24BIT_IMAGE, new ByteArrayInputStream(is32));
+                builder.reset();
+
+                IcnsIcons first = builder.add(IcnsType.ICNS_128x128_JPEG_PNG_IMAGE, new ByteArrayInputStream(ic07)).build();
+
+                try {
+                    builder.add(IcnsType.ICNS_16x16_24BIT_IMAGE, new ByteArrayInputStream(is32));
+                    fail();
+
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+
+                // Icons built before remain valid after reset, until closed
+                for (int i = 0; i < 3; i++) {
+                    builder.reset();
+                    builder.add(IcnsType.ICNS_16x16_24BIT_IMAGE, new ByteArrayInputStream(is32));
+
+                    try (IcnsIcons icons = builder.build()) {
+                        assertEquals(1, icons.getEntries().size());
+                        assertArrayEquals(is32, readAll(icons.getEntries().get(0)));
+                    }
+
+                    assertEquals(1, first.getEntries().size());
+                    assertArrayEquals(ic07, readAll(first.getEntries().get(0)));
+                }
+
+                first.close();
+                builder.reset();
+
+                try (IcnsIcons icons = builder.add(IcnsType.ICNS_128x128_JPEG_PNG_IMAGE, new ByteArrayInputStream(ic07)).build()) {
+                    assertArrayEquals(ic07, readAll(icons.getEntries().get(0)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBuildReferences() throws Exception {
+        byte[] expected = Files.readAllBytes(getResource("/compass.icns"));
+        ByteBuffer il32 = ByteBuffer.allocateDirect(10000);
+        il32.put(Files.readAllBytes(getResource("/il32")));
+        il32.flip();
+
+        try (IcnsBuilder builder = IcnsBuilder.getInstance(Long.MAX_VALUE)) {
+            builder.add(IcnsType.ICNS_16x16_24BIT_IMAGE, getResource("/is32"));
+            builder.add(IcnsType.ICNS_16x16_8BIT_MASK, Files.newInputStream(getResource("/s8mk")));
+            builder.add(IcnsType.ICNS_32x32_24BIT_IMAGE, il32);
+            builder.add(IcnsType.ICNS_32x32_8BIT_MASK, Files.readAllBytes(getResource("/l8mk")));
+            builder.add(IcnsType.ICNS_128x128_JPEG_PNG_IMAGE, Files.newInputStream(getResource("/ic07_128x128.png")));
+            builder.add(IcnsType.ICNS_256x256_JPEG_PNG_IMAGE, Files.newInputStream(getResource("/ic08_256x256.png")));
+            builder.add(IcnsType.ICNS_512x512_JPEG_PNG_IMAGE, getResource("/ic09_512x512.png"));
+            builder.add(IcnsType.ICNS_16x16_2X_JPEG_PNG_IMAGE, Files.newInputStream(getResource("/ic11_16x16@2x.png")));
+            builder.add(IcnsType.ICNS_32x32_2X_JPEG_PNG_IMAGE, Files.newInputStream(getResource("/ic12_32x32@2x.png")));
+            builder.add(IcnsType.ICNS_128x128_2X_JPEG_PNG_IMAGE, Files.newInputStream(getResource("/ic13_128x128@2x.png")));
+            builder.add(IcnsType.ICNS_256x256_2X_JPEG_PNG_IMAGE, Files.newInputStream(getResource("/ic14_256x256@2x.png")));
+            builder.add(IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE, getResource("/ic10_1024x1024.png"));
+
+            // The buffer is not consumed
+            assertEquals(0, il32.position());
+
+            try (IcnsIcons builtIcons = builder.build()) {
+                Path output = getResource("/").resolve("generated-references.icns");
+                builtIcons.writeTo(output);
+                assertArrayEquals(expected, Files.readAllBytes(output));
+
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                builtIcons.writeTo(os);
+                assertArrayEquals(expected, os.toByteArray());
+
+                assertArrayEquals(Files.readAllBytes(getResource("/il32")), readAll(builtIcons.getEntry(IcnsType.ICNS_32x32_24BIT_IMAGE)));
+                assertArrayEquals(Files.readAllBytes(getResource("/ic10_1024x1024.png")), readAll(builtIcons.getEntry(IcnsType.ICNS_1024x1024_2X_JPEG_PNG_IMAGE)));
+
+                // Referenced files are read through channels shared by all readers, and closed along with the icons
+                IcnsIcons.Entry ic09 = builtIcons.getEntry(IcnsType.ICNS_512x512_JPEG_PNG_IMAGE);
+                try (InputStream is1 = ic09.newInputStream(); InputStream is2 = ic09.newInputStream()) {
+                    assertEquals(is1.read(), is2.read());
+                }
+
+                builtIcons.close();
+                try {
+                    readAll(ic09);
+                    fail();
+
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
     private static boolean loadImage(String osType, IcnsType type, int size, InputStream is) throws IOException {
         AtomicLong counter = new AtomicLong();
         is = IoStreams.count(is, counter::addAndGet);
@@ -112,6 +1318,86 @@ public class IcnsTest {
         }
     }
 
+    private static void assertIndexed(IcnsIcons expected, List<IcnsIcons.Entry> entries) throws IOException {
+        assertEquals(expected.getEntries().size(), entries.size());
+
+        for (int i = 0; i < entries.size(); i++) {
+            IcnsIcons.Entry e = entries.get(i);
+            assertEquals(expected.getEntries().get(i).getOsType(), e.getOsType());
+            assertEquals(expected.getEntries().get(i).getType(), e.getType());
+            assertArrayEquals(readAll(expected.getEntries().get(i)), readAll(e));
+        }
+    }
+
+    private static byte[] readAll(IcnsIcons.Entry entry) throws IOException {
+        try (InputStream is = entry.newInputStream()) {
+            return readAll(is);
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        IoStreams.copy(is, bos);
+
+        return bos.toByteArray();
+    }
+
+    private static class CountingChannel implements SeekableByteChannel {
+        private final SeekableByteChannel channel;
+        private long bytesRead;
+
+        CountingChannel(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n = channel.read(dst);
+            bytesRead += Math.max(n, 0);
+
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+
+            return this;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
     private static Path getResource(String name) {
         try {
             return new File(IcnsTest.class.getResource(name).toURI()).toPath();
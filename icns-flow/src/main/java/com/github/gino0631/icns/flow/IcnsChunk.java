@@ -0,0 +1,93 @@
+package com.github.gino0631.icns.flow;
+
+import com.github.gino0631.icns.IcnsType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A piece of icon data of an ICNS entry.
+ * <p>
+ * Data of every entry is published as one or more chunks in order; an entry without data is published as a single empty chunk.
+ */
+public final class IcnsChunk {
+    private final String osType;
+    private final IcnsType type;
+    private final int size;
+    private final int offset;
+    private final int length;
+    private final ByteBuffer data;
+
+    IcnsChunk(String osType, IcnsType type, int size, int offset, ByteBuffer data) {
+        this.osType = osType;
+        this.type = type;
+        this.size = size;
+        this.offset = offset;
+        this.length = data.remaining();
+        this.data = data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets OSType identifier of the icon type.
+     *
+     * @return a string corresponding to a four-byte type identifier
+     */
+    public String getOsType() {
+        return osType;
+    }
+
+    /**
+     * Gets type of the icon.
+     *
+     * @return type of the icon, or {@code null} if it could not be determined
+     */
+    public IcnsType getType() {
+        return type;
+    }
+
+    /**
+     * Gets size of the icon.
+     *
+     * @return size of icon data of the entry in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets offset of the chunk in icon data.
+     *
+     * @return offset in bytes
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets data of the chunk.
+     * <p>
+     * The buffer is not reused for other chunks, so it may be retained after the chunk has been received.
+     *
+     * @return read-only buffer containing data of the chunk between its position and limit
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    /**
+     * Checks if this is the first chunk of the entry.
+     *
+     * @return {@code true} if the chunk starts at the beginning of icon data
+     */
+    public boolean isFirst() {
+        return offset == 0;
+    }
+
+    /**
+     * Checks if this is the last chunk of the entry.
+     *
+     * @return {@code true} if the chunk ends at the end of icon data
+     */
+    public boolean isLast() {
+        return offset + length == size;
+    }
+}
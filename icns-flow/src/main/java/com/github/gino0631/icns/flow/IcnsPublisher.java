@@ -0,0 +1,141 @@
+package com.github.gino0631.icns.flow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publisher of ICNS icon data, as a sequence of {@link IcnsChunk chunks} of its entries.
+ * <p>
+ * Data is read from the source only when subscribers request more chunks than have already been parsed,
+ * one buffer at a time, so the publisher does not read ahead of its subscribers. Chunks are delivered
+ * on the thread calling {@link Flow.Subscription#request(long)}. As with {@link com.github.gino0631.icns.IcnsParser},
+ * all entries, including the TOC, are published in the order they appear in the data.
+ */
+public final class IcnsPublisher implements Flow.Publisher<IcnsChunk> {
+    static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    private final Source source;
+    private final int bufferSize;
+
+    @FunctionalInterface
+    private interface Source {
+        ReadableByteChannel open() throws IOException;
+    }
+
+    private IcnsPublisher(Source source, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+
+        this.source = source;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Creates a publisher of the specified ICNS file.
+     * <p>
+     * The file is opened for every subscriber, and closed when the subscription ends.
+     *
+     * @param file ICNS file
+     * @return a new publisher
+     */
+    public static IcnsPublisher of(Path file) {
+        return of(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a publisher of the specified ICNS file.
+     *
+     * @param file       ICNS file
+     * @param bufferSize size of the buffers data is read into, i.e. the maximum size of a chunk
+     * @return a new publisher
+     * @see #of(Path)
+     */
+    public static IcnsPublisher of(Path file, int bufferSize) {
+        Objects.requireNonNull(file);
+
+        return new IcnsPublisher(() -> FileChannel.open(file, StandardOpenOption.READ), bufferSize);
+    }
+
+    /**
+     * Creates a publisher of ICNS data read from the specified channel.
+     * <p>
+     * The data starts at the current position of the channel, which must be in blocking mode.
+     * The publisher can only be subscribed to once; the channel will not be closed when the subscription ends.
+     *
+     * @param channel ICNS channel
+     * @return a new publisher
+     */
+    public static IcnsPublisher of(ReadableByteChannel channel) {
+        return of(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a publisher of ICNS data read from the specified channel.
+     *
+     * @param channel    ICNS channel
+     * @param bufferSize size of the buffers data is read into, i.e. the maximum size of a chunk
+     * @return a new publisher
+     * @see #of(ReadableByteChannel)
+     */
+    public static IcnsPublisher of(ReadableByteChannel channel, int bufferSize) {
+        Objects.requireNonNull(channel);
+        AtomicBoolean subscribed = new AtomicBoolean();
+
+        return new IcnsPublisher(() -> {
+            if (!subscribed.compareAndSet(false, true)) {
+                throw new IllegalStateException("The publisher has already been subscribed to");
+            }
+
+            // Closing the subscription must not close the channel
+            return new ReadableByteChannel() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    return channel.read(dst);
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return channel.isOpen();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }, bufferSize);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super IcnsChunk> subscriber) {
+        Objects.requireNonNull(subscriber);
+        ReadableByteChannel channel;
+
+        try {
+            channel = source.open();
+
+        } catch (IOException | RuntimeException e) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(e);
+
+            return;
+        }
+
+        new IcnsSubscription(subscriber, channel, bufferSize).start();
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.gino0631.icns.flow;
+
+import com.github.gino0631.icns.IcnsPushParser;
+import com.github.gino0631.icns.IcnsType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscription reading ICNS data on demand, and feeding it to {@link IcnsPushParser}.
+ * <p>
+ * Signals are delivered by a drain loop, which is entered by one thread at a time; other threads calling
+ * {@link #request(long)} or {@link #cancel()} while a thread is in the loop only make it run once more.
+ */
+final class IcnsSubscription implements Flow.Subscription, IcnsPushParser.Handler {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Flow.Subscriber<? super IcnsChunk> subscriber;
+    private final ReadableByteChannel channel;
+    private final int bufferSize;
+    private final IcnsPushParser parser = IcnsPushParser.newInstance(this);
+    private final Queue<IcnsChunk> queue = new ArrayDeque<>();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+    private boolean terminated;
+
+    // Entry being parsed
+    private String osType;
+    private IcnsType type;
+    private int size;
+    private int offset;
+
+    IcnsSubscription(Flow.Subscriber<? super IcnsChunk> subscriber, ReadableByteChannel channel, int bufferSize) {
+        this.subscriber = subscriber;
+        this.channel = channel;
+        this.bufferSize = bufferSize;
+    }
+
+    void start() {
+        // Hold the loop, so that requests made from onSubscribe are served after it returns
+        wip.incrementAndGet();
+
+        try {
+            subscriber.onSubscribe(this);
+
+        } finally {
+            drainLoop();
+        }
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            invalidRequest = new IllegalArgumentException("Number of requested chunks must be positive, but was " + n);
+
+        } else {
+            requested.getAndUpdate(r -> (r + n < 0) ? Long.MAX_VALUE : r + n);
+        }
+
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        drain();
+    }
+
+    @Override
+    public void onEntryStart(String osType, IcnsType type, int size) {
+        this.osType = osType;
+        this.type = type;
+        this.size = size;
+        this.offset = 0;
+
+        if (size == 0) {
+            queue.add(new IcnsChunk(osType, type, 0, 0, EMPTY));
+        }
+    }
+
+    @Override
+    public void onEntryData(ByteBuffer data) {
+        // Data is a view of a buffer allocated for a single read, so it can be handed out without copying
+        queue.add(new IcnsChunk(osType, type, size, offset, data.slice()));
+        offset += data.remaining();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() == 0) {
+            drainLoop();
+        }
+    }
+
+    private void drainLoop() {
+        int missed = wip.get();
+
+        while (true) {
+            if (!terminated) {
+                serve();
+            }
+
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void serve() {
+        long emitted = 0;
+
+        while (true) {
+            if (cancelled) {
+                terminate(null, false);
+                return;
+            }
+
+            Throwable e = invalidRequest;
+            if (e != null) {
+                terminate(e, true);
+                return;
+            }
+
+            IcnsChunk chunk = queue.peek();
+
+            if (chunk == null) {
+                if (parser.isDone()) {
+                    terminate(null, true);
+                    return;
+                }
+
+                if (requested.get() == emitted) {
+                    break;
+                }
+
+                try {
+                    read();
+
+                } catch (IOException | RuntimeException x) {
+                    terminate(x, true);
+                    return;
+                }
+
+            } else {
+                if (requested.get() == emitted) {
+                    break;
+                }
+
+                queue.poll();
+                subscriber.onNext(chunk);
+                emitted++;
+            }
+        }
+
+        if (emitted > 0) {
+            final long n = emitted;
+            requested.getAndUpdate(r -> (r == Long.MAX_VALUE) ? r : r - n);
+        }
+    }
+
+    private void read() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(bufferSize);
+        if (channel.read(buf) < 0) {
+            throw new EOFException("Channel ended before the end of ICNS data");
+        }
+
+        buf.flip();
+        parser.feed(buf);
+    }
+
+    private void terminate(Throwable error, boolean signal) {
+        terminated = true;
+        queue.clear();
+
+        try {
+            channel.close();
+
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+
+            } else {
+                error.addSuppressed(e);
+            }
+        }
+
+        if (signal) {
+            if (error != null) {
+                subscriber.onError(error);
+
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.gino0631.icns.flow;
+
+import com.github.gino0631.icns.IcnsParser;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.junit.Assert.*;
+
+public class IcnsPublisherTest {
+    @Test
+    public void testPublish() throws Exception {
+        List<String> expected = new ArrayList<>();
+        IcnsParser.parse(getResource("/compass.icns"), (osType, type, size, input) -> {
+            expected.add(osType + ":" + size + ":" + Arrays.hashCode(input.readAllBytes()));
+
+            return true;
+        });
+
+        for (int bufferSize : new int[]{100, 65536}) {
+            TestSubscriber subscriber = new TestSubscriber(1);
+            IcnsPublisher.of(getResource("/compass.icns"), bufferSize).subscribe(subscriber);
+
+            assertTrue(subscriber.completed);
+            assertNull(subscriber.error);
+            assertEquals(expected, subscriber.entries);
+            assertTrue(subscriber.maxChunkSize <= bufferSize);
+        }
+    }
+
+    @Test
+    public void testDemand() throws Exception {
+        byte[] data = Files.readAllBytes(getResource("/compass.icns"));
+        CountingChannel channel = new CountingChannel(Channels.newChannel(new ByteArrayInputStream(data)));
+        TestSubscriber subscriber = new TestSubscriber(0);
+        IcnsPublisher.of(channel, 1024).subscribe(subscriber);
+
+        // Nothing is read until chunks are requested
+        assertEquals(0, channel.bytesRead);
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.chunks);
+        assertEquals(1024, channel.bytesRead);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.completed);
+        assertEquals(data.length, channel.bytesRead);
+
+        // A channel can only be subscribed to once
+        IcnsPublisher publisher = IcnsPublisher.of(Channels.newChannel(new ByteArrayInputStream(data)));
+        publisher.subscribe(new TestSubscriber(1));
+        TestSubscriber second = new TestSubscriber(1);
+        publisher.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        byte[] data = Files.readAllBytes(getResource("/compass.icns"));
+        CountingChannel channel = new CountingChannel(Channels.newChannel(new ByteArrayInputStream(data)));
+        TestSubscriber subscriber = new TestSubscriber(0);
+        IcnsPublisher.of(channel, 1024).subscribe(subscriber);
+
+        subscriber.subscription.request(2);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+
+        assertEquals(2, subscriber.chunks);
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testInvalidData() throws Exception {
+        byte[] data = Files.readAllBytes(getResource("/compass.icns"));
+        TestSubscriber subscriber = new TestSubscriber(1);
+        IcnsPublisher.of(Channels.newChannel(new ByteArrayInputStream(data, 0, data.length / 2))).subscribe(subscriber);
+
+        assertFalse(subscriber.completed);
+        assertTrue(subscriber.error instanceof IOException);
+
+        subscriber = new TestSubscriber(0);
+        IcnsPublisher.of(Channels.newChannel(new ByteArrayInputStream(data))).subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    private static Path getResource(String name) throws URISyntaxException {
+        return Paths.get(IcnsPublisherTest.class.getResource(name).toURI());
+    }
+
+    /**
+     * Subscriber collecting entries, which requests the specified number of chunks after each received chunk.
+     */
+    private static class TestSubscriber implements Flow.Subscriber<IcnsChunk> {
+        private final int batch;
+        private final List<String> entries = new ArrayList<>();
+        private final ByteArrayOutputStream current = new ByteArrayOutputStream();
+        private Flow.Subscription subscription;
+        private int chunks;
+        private int maxChunkSize;
+        private boolean completed;
+        private Throwable error;
+
+        TestSubscriber(int batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (batch > 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onNext(IcnsChunk chunk) {
+            chunks++;
+            assertEquals(current.size(), chunk.getOffset());
+            assertEquals(current.size() == 0, chunk.isFirst());
+
+            ByteBuffer data = chunk.getData();
+            maxChunkSize = Math.max(maxChunkSize, data.remaining());
+            byte[] b = new byte[data.remaining()];
+            data.get(b);
+            current.write(b, 0, b.length);
+
+            if (chunk.isLast()) {
+                assertEquals(chunk.getSize(), current.size());
+                entries.add(chunk.getOsType() + ":" + chunk.getSize() + ":" + Arrays.hashCode(current.toByteArray()));
+                current.reset();
+            }
+
+            if (batch > 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            assertFalse(completed);
+            assertNull(error);
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            assertFalse(completed);
+            assertNull(error);
+            completed = true;
+        }
+    }
+
+    private static class CountingChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private long bytesRead;
+
+        CountingChannel(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n = channel.read(dst);
+            if (n > 0) {
+                bytesRead += n;
+            }
+
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -17,7 +17,6 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -58,16 +57,13 @@ public class IcnsMojo extends AbstractMojo {
 
         try {
             try (IcnsBuilder builder = IcnsBuilder.getInstance()) {
+                // Icon files are written to the output directly, without copying them to a temporary file
                 for (Icon icon : icons) {
-                    try (InputStream is = getInputStream(icon)) {
-                        builder.add(getOsType(icon), is);
-                    }
+                    builder.add(getOsType(icon), getPath(icon));
                 }
 
                 try (IcnsIcons icons = builder.build()) {
-                    try (OutputStream os = getOutputStream()) {
-                        icons.writeTo(os);
-                    }
+                    icons.writeTo(getOutputFile());
                 }
             }
 
@@ -86,7 +82,7 @@ public class IcnsMojo extends AbstractMojo {
             String name = Paths.get(icon.getFile()).getFileName().toString();
 
             try {
-                try (InputStream is = getInputStream(icon)) {
+                try (InputStream is = Files.newInputStream(getPath(icon))) {
                     try (ImageInputStream iis = ImageIO.createImageInputStream(is)) {
                         Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(iis);
 
@@ -142,17 +138,17 @@ public class IcnsMojo extends AbstractMojo {
         }
     }
 
-    private InputStream getInputStream(Icon icon) throws IOException {
+    private Path getPath(Icon icon) {
         Path path = Paths.get(icon.getFile());
 
         if (resourceDirectory != null) {
             path = resourceDirectory.toPath().resolve(path);
         }
 
-        return Files.newInputStream(path);
+        return path;
     }
 
-    private OutputStream getOutputStream() throws IOException {
+    private Path getOutputFile() throws IOException {
         Path path = Paths.get(outputFile);
 
         if (path.getFileName().toString().indexOf('.') < 0) {
@@ -165,6 +161,6 @@ public class IcnsMojo extends AbstractMojo {
 
         Files.createDirectories(path.getParent());
 
-        return Files.newOutputStream(path);
+        return path;
     }
 }